@@ -1,13 +1,31 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.zip.CRC32C;
 
 public class ChatClient {
     private static final Logger LOGGER = Logger.getLogger(ChatClient.class.getName());
+    private static final int UPLOAD_CHUNK_SIZE = 1024 * 1024;
+    private static final int DOWNLOAD_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_TRANSFER_RETRIES = 5;
+    private static final long UPLOAD_RETRY_DELAY_MILLIS = 500;
     private ChatService chatService;
+    private volatile PayloadCodec payloadCodec = new PayloadCodec(PayloadCodec.NONE, PayloadCodec.DEFAULT_THRESHOLD);
     private final String host;
     private final int port;
 
@@ -26,6 +44,7 @@ public class ChatClient {
         boolean success = chatService.signIn(username, password);
         if (success) {
             LOGGER.log(Level.INFO, "User {0} signed in successfully", username);
+            negotiateCompression(username);
             ClientCallback clientCallback = new ClientCallbackImpl(username);
             registerCallback(username, clientCallback);
             return true;
@@ -35,6 +54,16 @@ public class ChatClient {
         }
     }
 
+    private void negotiateCompression(String username) throws RemoteException {
+        int codec = chatService.negotiateCompression(username, PayloadCodec.SUPPORTED_CODECS);
+        payloadCodec = new PayloadCodec(codec, PayloadCodec.DEFAULT_THRESHOLD);
+        LOGGER.log(Level.FINE, "Negotiated compression codec {0}", codec);
+    }
+
+    public PayloadCodec.Stats getCompressionStats() {
+        return payloadCodec.getStats();
+    }
+
     public boolean connectivityCheck() {
         try {
             Registry registry = LocateRegistry.getRegistry(host, port);
@@ -85,6 +114,12 @@ public class ChatClient {
         return users;
     }
 
+    public PresenceSnapshot getPresenceSnapshot() throws RemoteException {
+        PresenceSnapshot snapshot = chatService.getPresenceSnapshot();
+        LOGGER.log(Level.FINE, "Retrieved presence snapshot version {0}", snapshot.getVersion());
+        return snapshot;
+    }
+
     public void sendMessage(String sender, String recipient, String message) throws RemoteException {
         Command sendMessageCommand = new SendMessageCommand(chatService, sender, recipient, message);
         sendMessageCommand.execute();
@@ -112,6 +147,36 @@ public class ChatClient {
         return chatService.getMessageHistory(currentUser);
     }
 
+    public List<Message> getConversationHistory(String currentUser, String partner, long beforeId, int limit) throws RemoteException {
+        List<Message> page = chatService.getConversationHistory(currentUser, partner, beforeId, limit);
+        LOGGER.log(Level.FINE, "Retrieved {0} messages with {1} before id {2}", new Object[]{page.size(), partner, beforeId});
+        return page;
+    }
+
+    public List<Message> getRecentMessages(String currentUser, long beforeId, int limit) throws RemoteException {
+        List<Message> page = chatService.getRecentMessages(currentUser, beforeId, limit);
+        LOGGER.log(Level.FINE, "Retrieved {0} recent messages before id {1}", new Object[]{page.size(), beforeId});
+        return page;
+    }
+
+    public long streamMessageHistory(String currentUser, int chunkSize) throws RemoteException {
+        long streamId = chatService.streamMessageHistory(currentUser, chunkSize);
+        LOGGER.log(Level.FINE, "Requested history stream {0} for {1}", new Object[]{streamId, currentUser});
+        return streamId;
+    }
+
+    public List<Message> searchMessages(String currentUser, String query, String roomName, String partner, int offset, int limit) throws RemoteException {
+        List<Message> hits = chatService.searchMessages(currentUser, query, roomName, partner, offset, limit);
+        LOGGER.log(Level.FINE, "Search for {0} returned {1} messages", new Object[]{query, hits.size()});
+        return hits;
+    }
+
+    public List<Message> getRoomHistory(String roomName, long beforeId, int limit) throws RemoteException {
+        List<Message> page = chatService.getRoomHistory(roomName, beforeId, limit);
+        LOGGER.log(Level.FINE, "Retrieved {0} messages from room {1} before id {2}", new Object[]{page.size(), roomName, beforeId});
+        return page;
+    }
+
     public String[] getRoomClients(String selectedRoom) throws RemoteException {
         String[] clients = chatService.getRoomClients(selectedRoom);
         LOGGER.log(Level.FINE, "Retrieved {0} clients for room {1}",
@@ -135,6 +200,131 @@ public class ChatClient {
         LOGGER.log(Level.FINE, "File sent from {0} to room {1}", new Object[]{sender, roomName});
     }
 
+    public void uploadFile(String sender, Path file, String recipient, boolean roomUpload) throws IOException {
+        long fileSize = Files.size(file);
+        String fileName = file.getFileName().toString();
+        String uploadId = chatService.beginUpload(sender, fileName, fileSize);
+        if (uploadId == null) {
+            throw new IOException("The server refused the upload of " + fileName);
+        }
+        byte[] buffer = new byte[UPLOAD_CHUNK_SIZE];
+        CRC32C crc = new CRC32C();
+        int failures = 0;
+        boolean resync = false;
+        long offset = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (offset < fileSize || resync) {
+                try {
+                    if (resync) {
+                        offset = chatService.getUploadOffset(sender, uploadId);
+                        resync = false;
+                        LOGGER.log(Level.INFO, "Resuming upload {0} at offset {1}", new Object[]{uploadId, offset});
+                    } else {
+                        int length = readChunk(channel, buffer, offset, (int) Math.min(buffer.length, fileSize - offset));
+                        byte[] chunk = length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+                        crc.reset();
+                        crc.update(chunk);
+                        long acknowledged = chatService.uploadChunk(sender, uploadId, offset, payloadCodec.pack(chunk), crc.getValue());
+                        if (acknowledged == offset && ++failures > MAX_TRANSFER_RETRIES) {
+                            throw new IOException("The server keeps rejecting chunk at offset " + offset + " of " + fileName);
+                        }
+                        if (acknowledged != offset) {
+                            failures = 0;
+                        }
+                        offset = acknowledged;
+                    }
+                } catch (RemoteException e) {
+                    if (++failures > MAX_TRANSFER_RETRIES) {
+                        throw e;
+                    }
+                    LOGGER.log(Level.WARNING, "Upload {0} interrupted at offset {1}, retrying", new Object[]{uploadId, offset});
+                    pauseBeforeRetry(failures);
+                    resync = true;
+                }
+                if (offset < 0) {
+                    throw new IOException("Upload of " + fileName + " expired on the server");
+                }
+            }
+        } catch (IOException e) {
+            abortUpload(sender, uploadId);
+            throw e;
+        }
+        if (!chatService.commitUpload(sender, uploadId, recipient, roomUpload)) {
+            throw new IOException("The server could not deliver " + fileName);
+        }
+        LOGGER.log(Level.FINE, "Uploaded {0} ({1} bytes) from {2} to {3}", new Object[]{fileName, fileSize, sender, recipient});
+    }
+
+    private static int readChunk(FileChannel channel, byte[] buffer, long offset, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, offset + target.position()) < 0) {
+                throw new EOFException("File changed while uploading");
+            }
+        }
+        return length;
+    }
+
+    private static void pauseBeforeRetry(int attempt) throws IOException {
+        try {
+            Thread.sleep(UPLOAD_RETRY_DELAY_MILLIS * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        }
+    }
+
+    private void abortUpload(String sender, String uploadId) {
+        try {
+            chatService.abortUpload(sender, uploadId);
+        } catch (RemoteException e) {
+            LOGGER.log(Level.FINE, "Could not abort upload " + uploadId, e);
+        }
+    }
+
+    public void downloadFile(String signedInUser, String fileHash, long fileSize, Path target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        int failures = 0;
+        long offset = 0;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (offset < fileSize) {
+                byte[] chunk;
+                try {
+                    int length = (int) Math.min(DOWNLOAD_CHUNK_SIZE, fileSize - offset);
+                    chunk = payloadCodec.unpack(chatService.downloadFile(signedInUser, fileHash, offset, length), length);
+                } catch (RemoteException e) {
+                    if (++failures > MAX_TRANSFER_RETRIES) {
+                        throw e;
+                    }
+                    LOGGER.log(Level.WARNING, "Download of {0} interrupted at offset {1}, retrying", new Object[]{fileHash, offset});
+                    pauseBeforeRetry(failures);
+                    continue;
+                }
+                if (chunk == null || chunk.length == 0) {
+                    throw new IOException("File is no longer available on the server");
+                }
+                failures = 0;
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                digest.update(chunk);
+                offset += chunk.length;
+            }
+        }
+        if (!HexFormat.of().formatHex(digest.digest()).equals(fileHash)) {
+            Files.deleteIfExists(target);
+            throw new IOException("Downloaded file does not match its checksum");
+        }
+        LOGGER.log(Level.FINE, "Downloaded file {0} ({1} bytes) to {2}", new Object[]{fileHash, fileSize, target});
+    }
+
     public boolean isUserInRoom(String username, String roomName) throws RemoteException {
         return chatService.isUserInRoom(username, roomName);
     }
@@ -142,6 +332,9 @@ public class ChatClient {
     public void signOut(String username) throws RemoteException {
         chatService.signOut(username);
         LOGGER.log(Level.INFO, "User {0} signed out", username);
+        if (payloadCodec.isEnabled()) {
+            LOGGER.log(Level.INFO, "Compression for this session: {0}", payloadCodec.getStats());
+        }
     }
 
     public boolean canDeleteRoom(String currentUser, String selectedRoom) {
@@ -8,11 +8,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serial;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,6 +26,9 @@ public class ChatGUI extends JFrame implements ClientCallback {
     @Serial
     private static final long serialVersionUID = 1L;
     private static final String PLEASE_LOGIN_FIRST = "Please login first";
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private static final int HISTORY_CHUNK_SIZE = 100;
+    private static final int SEARCH_PAGE_SIZE = 50;
 
     private final transient ChatClient client;
     private String currentUser;
@@ -36,10 +43,15 @@ public class ChatGUI extends JFrame implements ClientCallback {
     private DefaultListModel<String> roomListModel;
     private DefaultListModel<String> roomClientsModel;
     private final Set<String> joinedRooms = new HashSet<>();
+    private final Map<String, Long> conversationCursors = new HashMap<>();
+    private final Map<String, Long> roomCursors = new HashMap<>();
+    private long recentCursor;
+    private long presenceVersion;
     private JButton sendButton;
     private JButton joinRoomButton;
     private JButton leaveRoomButton;
     private JButton sendFileButton;
+    private JButton olderMessagesButton;
 
     public ChatGUI() {
         super("Chat Application");
@@ -55,6 +67,7 @@ public class ChatGUI extends JFrame implements ClientCallback {
         chatArea.setEditable(false);
         messageField = new JTextField();
         sendFileButton = new JButton("Send File");
+        olderMessagesButton = new JButton("Older Messages");
         userListModel = new DefaultListModel<>();
         roomListModel = new DefaultListModel<>();
         roomClientsModel = new DefaultListModel<>();
@@ -93,24 +106,26 @@ public class ChatGUI extends JFrame implements ClientCallback {
         int result = fileChooser.showOpenDialog(this);
 
         if (result == JFileChooser.APPROVE_OPTION) {
-            try {
-                File selectedFile = fileChooser.getSelectedFile();
-                byte[] fileData = Files.readAllBytes(selectedFile.toPath());
-                String fileName = selectedFile.getName();
-
-                if (selectedRoom != null && joinedRooms.contains(selectedRoom)) {
-                    client.sendFileToRoom(currentUser, selectedRoom, fileData, fileName);
-                    chatArea.append("Sending file " + fileName + " to room: " + selectedRoom + "\n");
-                } else if (selectedUser != null) {
-                    client.sendFile(currentUser, selectedUser, fileData, fileName);
-                    chatArea.append("Sending file " + fileName + " to user: " + selectedUser + "\n");
-                } else {
-                    JOptionPane.showMessageDialog(this, "Please select a room or user first");
-                }
-            } catch (IOException ex) {
-                logger.log(Level.WARNING, "Failed to send file", ex);
-                JOptionPane.showMessageDialog(this, "Failed to send file: " + ex.getMessage());
+            File selectedFile = fileChooser.getSelectedFile();
+            String fileName = selectedFile.getName();
+            String sender = currentUser;
+            boolean roomUpload = selectedRoom != null && joinedRooms.contains(selectedRoom);
+            String recipient = roomUpload ? selectedRoom : selectedUser;
+            if (recipient == null) {
+                JOptionPane.showMessageDialog(this, "Please select a room or user first");
+                return;
             }
+            chatArea.append("Sending file " + fileName + (roomUpload ? " to room: " : " to user: ") + recipient + "\n");
+            Thread.startVirtualThread(() -> {
+                try {
+                    client.uploadFile(sender, selectedFile.toPath(), recipient, roomUpload);
+                    SwingUtilities.invokeLater(() -> chatArea.append("File sent: " + fileName + "\n"));
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Failed to send file", ex);
+                    SwingUtilities.invokeLater(() ->
+                            JOptionPane.showMessageDialog(this, "Failed to send file: " + ex.getMessage()));
+                }
+            });
         }
     }
 
@@ -127,12 +142,8 @@ public class ChatGUI extends JFrame implements ClientCallback {
                 JFileChooser fileChooser = new JFileChooser();
                 fileChooser.setSelectedFile(new File(fileMessage.getFileName()));
                 if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-                    try {
-                        Files.write(fileChooser.getSelectedFile().toPath(), fileMessage.getFileData());
-                        chatArea.append("File saved: " + fileMessage.getFileName() + "\n");
-                    } catch (IOException e) {
-                        JOptionPane.showMessageDialog(this, "Error saving file: " + e.getMessage());
-                    }
+                    saveReceivedFile(fileMessage, fileChooser.getSelectedFile().toPath(),
+                            "File saved: " + fileMessage.getFileName());
                 }
             }
         });
@@ -150,13 +161,28 @@ public class ChatGUI extends JFrame implements ClientCallback {
                 JFileChooser fileChooser = new JFileChooser();
                 fileChooser.setSelectedFile(new File(fileMessage.getFileName()));
                 if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-                    try {
-                        Files.write(fileChooser.getSelectedFile().toPath(), fileMessage.getFileData());
-                        chatArea.append("File saved from room " + roomName + ": " + fileMessage.getFileName() + "\n");
-                    } catch (IOException e) {
-                        JOptionPane.showMessageDialog(this, "Error saving file: " + e.getMessage());
-                    }
+                    saveReceivedFile(fileMessage, fileChooser.getSelectedFile().toPath(),
+                            "File saved from room " + roomName + ": " + fileMessage.getFileName());
+                }
+            }
+        });
+    }
+
+    private void saveReceivedFile(Message fileMessage, Path target, String savedNotice) {
+        String user = currentUser;
+        Thread.startVirtualThread(() -> {
+            try {
+                if (fileMessage.getFileData() != null) {
+                    Files.write(target, fileMessage.getFileData());
+                } else if (fileMessage.getFileHash() != null) {
+                    client.downloadFile(user, fileMessage.getFileHash(), fileMessage.getFileSize(), target);
+                } else {
+                    throw new IOException("File " + fileMessage.getFileName() + " is no longer available on the server");
                 }
+                SwingUtilities.invokeLater(() -> chatArea.append(savedNotice + "\n"));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to save file", e);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Error saving file: " + e.getMessage()));
             }
         });
     }
@@ -196,6 +222,7 @@ public class ChatGUI extends JFrame implements ClientCallback {
 
         JPanel messagePanel = new JPanel(new BorderLayout());
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(olderMessagesButton);
         buttonPanel.add(sendFileButton);
         buttonPanel.add(sendButton);
 
@@ -216,15 +243,21 @@ public class ChatGUI extends JFrame implements ClientCallback {
         JMenuItem registerItem = new JMenuItem("Register");
         JMenuItem createRoomItem = new JMenuItem("Create Room");
         JMenuItem signOutItem = new JMenuItem("Sign Out");
+        JMenuItem fullHistoryItem = new JMenuItem("Full History");
+        JMenuItem searchItem = new JMenuItem("Search Messages");
 
         loginItem.addActionListener(_ -> showLoginDialog());
         registerItem.addActionListener(_ -> showRegisterDialog());
         createRoomItem.addActionListener(_ -> showCreateRoomDialog());
         signOutItem.addActionListener(_ -> signOut());
+        fullHistoryItem.addActionListener(_ -> streamFullHistory());
+        searchItem.addActionListener(_ -> showSearchDialog());
 
         menu.add(loginItem);
         menu.add(registerItem);
         menu.add(createRoomItem);
+        menu.add(fullHistoryItem);
+        menu.add(searchItem);
         menu.add(signOutItem);
         menuBar.add(menu);
 
@@ -237,12 +270,16 @@ public class ChatGUI extends JFrame implements ClientCallback {
                 client.signOut(currentUser);
                 client.unregisterCallback(currentUser);
                 currentUser = null;
+                presenceVersion = 0;
                 chatArea.append("Signed out successfully\n");
 
                 userListModel.clear();
                 roomListModel.clear();
                 roomClientsModel.clear();
                 joinedRooms.clear();
+                conversationCursors.clear();
+                roomCursors.clear();
+                recentCursor = 0;
 
             } catch (RemoteException ex) {
                 logger.log(Level.WARNING, "Sign out failed", ex);
@@ -258,6 +295,13 @@ public class ChatGUI extends JFrame implements ClientCallback {
         leaveRoomButton.addActionListener(_ -> leaveRoom());
         messageField.addActionListener(_ -> sendMessage());
         sendFileButton.addActionListener(_ -> sendFile());
+        olderMessagesButton.addActionListener(_ -> loadOlderMessages());
+        userList.addListSelectionListener(e -> {
+            String selectedUser = userList.getSelectedValue();
+            if (!e.getValueIsAdjusting() && selectedUser != null && !conversationCursors.containsKey(selectedUser)) {
+                loadConversationPage(selectedUser);
+            }
+        });
         roomList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 try {
@@ -298,7 +342,6 @@ public class ChatGUI extends JFrame implements ClientCallback {
         Timer refreshTimer = new Timer(5000, _ -> {
             if (currentUser != null) {
                 try {
-                    updateOnlineUsers();
                     updateRoomList();
                     updateRoomClientsList();
                 } catch (RemoteException ex) {
@@ -338,16 +381,26 @@ public class ChatGUI extends JFrame implements ClientCallback {
         }
     }
 
-    private void updateOnlineUsers() throws RemoteException {
-        String[] users = client.getOnlineUsers();
-        SwingUtilities.invokeLater(() -> {
-            userListModel.clear();
-            for (String user : users) {
-                if (!user.equals(currentUser)) {
-                    userListModel.addElement(user);
-                }
+    private void resyncPresence() {
+        try {
+            PresenceSnapshot snapshot = client.getPresenceSnapshot();
+            SwingUtilities.invokeLater(() -> applyPresenceSnapshot(snapshot));
+        } catch (RemoteException ex) {
+            logger.log(Level.WARNING, "Presence resync failed", ex);
+        }
+    }
+
+    private void applyPresenceSnapshot(PresenceSnapshot snapshot) {
+        if (snapshot.getVersion() < presenceVersion) {
+            return;
+        }
+        presenceVersion = snapshot.getVersion();
+        userListModel.clear();
+        for (String user : snapshot.getOnlineUsers()) {
+            if (!user.equals(currentUser)) {
+                userListModel.addElement(user);
             }
-        });
+        }
     }
 
     private void updateRoomList() throws RemoteException {
@@ -375,10 +428,139 @@ public class ChatGUI extends JFrame implements ClientCallback {
         }
     }
 
-    private void loadMessageHistory() throws RemoteException {
-        java.util.List<Message> history = client.getMessageHistory(currentUser);
-        for (Message message : history) {
-            displayMessage(message);
+    private void streamFullHistory() {
+        if (currentUser == null) {
+            JOptionPane.showMessageDialog(this, PLEASE_LOGIN_FIRST);
+            return;
+        }
+        try {
+            long streamId = client.streamMessageHistory(currentUser, HISTORY_CHUNK_SIZE);
+            if (streamId == 0) {
+                JOptionPane.showMessageDialog(this, "History is not available right now");
+            } else {
+                chatArea.append("--- Full message history ---\n");
+            }
+        } catch (RemoteException ex) {
+            logger.log(Level.WARNING, "Failed to request message history", ex);
+            JOptionPane.showMessageDialog(this, "Failed to load history: " + ex.getMessage());
+        }
+    }
+
+    private void showSearchDialog() {
+        if (currentUser == null) {
+            JOptionPane.showMessageDialog(this, PLEASE_LOGIN_FIRST);
+            return;
+        }
+        String selectedRoom = roomList.getSelectedValue();
+        String roomName = selectedRoom != null && joinedRooms.contains(selectedRoom) ? selectedRoom : null;
+        String partner = roomName == null ? userList.getSelectedValue() : null;
+        String scope = roomName != null ? " in room " + roomName : partner != null ? " with " + partner : "";
+        String query = JOptionPane.showInputDialog(this, "Search messages" + scope + ":");
+        if (query == null || query.isBlank()) {
+            return;
+        }
+        try {
+            List<Message> hits = client.searchMessages(currentUser, query, roomName, partner, 0, SEARCH_PAGE_SIZE);
+            chatArea.append("--- " + hits.size() + " results for \"" + query + "\"" + scope + " ---\n");
+            for (Message message : hits) {
+                if (message.isRoomMessage()) {
+                    displayRoomMessage(message.getRecipient(), message);
+                } else {
+                    displayMessage(message);
+                }
+            }
+        } catch (RemoteException ex) {
+            logger.log(Level.WARNING, "Failed to search messages", ex);
+            JOptionPane.showMessageDialog(this, "Search failed: " + ex.getMessage());
+        }
+    }
+
+    private void loadOlderMessages() {
+        if (currentUser == null) {
+            JOptionPane.showMessageDialog(this, PLEASE_LOGIN_FIRST);
+            return;
+        }
+        String selectedRoom = roomList.getSelectedValue();
+        if (selectedRoom != null && joinedRooms.contains(selectedRoom)) {
+            loadRoomHistoryPage(selectedRoom);
+            return;
+        }
+        String selectedUser = userList.getSelectedValue();
+        if (selectedUser == null) {
+            loadRecentPage();
+            return;
+        }
+        loadConversationPage(selectedUser);
+    }
+
+    private void loadRecentPage() {
+        if (recentCursor < 0) {
+            chatArea.append("No older messages\n");
+            return;
+        }
+        try {
+            List<Message> page = client.getRecentMessages(currentUser, recentCursor, HISTORY_PAGE_SIZE);
+            if (page.isEmpty()) {
+                chatArea.append(recentCursor == 0 ? "No messages yet\n" : "No older messages\n");
+                recentCursor = -1;
+                return;
+            }
+            chatArea.append("--- " + (recentCursor == 0 ? "Recent" : "Earlier") + " messages ---\n");
+            recentCursor = page.getFirst().getId();
+            for (Message message : page) {
+                displayMessage(message);
+            }
+        } catch (RemoteException ex) {
+            logger.log(Level.WARNING, "Failed to load recent messages", ex);
+            JOptionPane.showMessageDialog(this, "Failed to load history: " + ex.getMessage());
+        }
+    }
+
+    private void loadRoomHistoryPage(String roomName) {
+        long cursor = roomCursors.getOrDefault(roomName, 0L);
+        if (cursor < 0) {
+            chatArea.append("No older messages in room " + roomName + "\n");
+            return;
+        }
+        try {
+            List<Message> page = client.getRoomHistory(roomName, cursor, HISTORY_PAGE_SIZE);
+            if (page.isEmpty()) {
+                roomCursors.put(roomName, -1L);
+                chatArea.append("No older messages in room " + roomName + "\n");
+                return;
+            }
+            roomCursors.put(roomName, page.getFirst().getId());
+            chatArea.append("--- " + (cursor == 0 ? "Recent" : "Earlier") + " messages in room " + roomName + " ---\n");
+            for (Message message : page) {
+                displayRoomMessage(roomName, message);
+            }
+        } catch (RemoteException ex) {
+            logger.log(Level.WARNING, "Failed to load room history", ex);
+            JOptionPane.showMessageDialog(this, "Failed to load room history: " + ex.getMessage());
+        }
+    }
+
+    private void loadConversationPage(String partner) {
+        long cursor = conversationCursors.getOrDefault(partner, 0L);
+        if (cursor < 0) {
+            chatArea.append("No older messages with " + partner + "\n");
+            return;
+        }
+        try {
+            List<Message> page = client.getConversationHistory(currentUser, partner, cursor, HISTORY_PAGE_SIZE);
+            if (page.isEmpty()) {
+                conversationCursors.put(partner, -1L);
+                chatArea.append("No older messages with " + partner + "\n");
+                return;
+            }
+            conversationCursors.put(partner, page.getFirst().getId());
+            chatArea.append("--- " + (cursor == 0 ? "Recent" : "Earlier") + " messages with " + partner + " ---\n");
+            for (Message message : page) {
+                displayMessage(message);
+            }
+        } catch (RemoteException ex) {
+            logger.log(Level.WARNING, "Failed to load conversation history", ex);
+            JOptionPane.showMessageDialog(this, "Failed to load history: " + ex.getMessage());
         }
     }
 
@@ -403,9 +585,8 @@ public class ChatGUI extends JFrame implements ClientCallback {
                     ClientCallback callback = (ClientCallback) UnicastRemoteObject.exportObject(this, 0);
                     client.registerCallback(username, callback);
                     chatArea.append("Logged in as: " + currentUser + "\n");
-                    updateOnlineUsers();
                     updateRoomList();
-                    loadMessageHistory();
+                    loadRecentPage();
                 } else {
                     JOptionPane.showMessageDialog(this, "Invalid credentials");
                 }
@@ -487,6 +668,8 @@ public class ChatGUI extends JFrame implements ClientCallback {
                 if (client.joinRoom(currentUser, selectedRoom)) {
                     joinedRooms.add(selectedRoom);
                     chatArea.append("Successfully joined room: " + selectedRoom + "\n");
+                    roomCursors.remove(selectedRoom);
+                    loadRoomHistoryPage(selectedRoom);
                     updateRoomClientsList();
                 } else {
                     JOptionPane.showMessageDialog(this, "Could not join room. Room might no longer be available.");
@@ -528,30 +711,79 @@ public class ChatGUI extends JFrame implements ClientCallback {
 
     @Override
     public void onRoomMessageReceived(String roomName, Message message) throws RemoteException {
-        SwingUtilities.invokeLater(() -> {
-            String formattedMessage = String.format("[%s] [%s] %s: %s%n",
-                    new Date(message.getTimestamp()),
-                    roomName,
-                    message.getSender(),
-                    message.getContent());
-            chatArea.append(formattedMessage);
-            chatArea.setCaretPosition(chatArea.getDocument().getLength());
-        });
+        SwingUtilities.invokeLater(() -> displayRoomMessage(roomName, message));
+    }
+
+    private void displayRoomMessage(String roomName, Message message) {
+        String formattedMessage = String.format("[%s] [%s] %s: %s%n",
+                new Date(message.getTimestamp()),
+                roomName,
+                message.getSender(),
+                message.getContent());
+        chatArea.append(formattedMessage);
+        chatArea.setCaretPosition(chatArea.getDocument().getLength());
     }
 
     @Override
     public void onUserStatusChanged(String username, boolean online) throws RemoteException {
+        SwingUtilities.invokeLater(() -> applyUserStatus(username, online));
+    }
+
+    @Override
+    public void onPresenceSnapshot(PresenceSnapshot snapshot) throws RemoteException {
+        SwingUtilities.invokeLater(() -> applyPresenceSnapshot(snapshot));
+    }
+
+    @Override
+    public void onPresenceDelta(long version, String username, boolean online) throws RemoteException {
         SwingUtilities.invokeLater(() -> {
-            if (online) {
-                if (!userListModel.contains(username) && !username.equals(currentUser)) {
-                    userListModel.addElement(username);
-                }
+            if (presenceVersion == 0 || version <= presenceVersion) {
+                return;
+            }
+            if (version == presenceVersion + 1) {
+                presenceVersion = version;
+                applyUserStatus(username, online);
             } else {
-                userListModel.removeElement(username);
+                logger.log(Level.INFO, "Presence gap detected ({0} -> {1}), resyncing", new Object[]{presenceVersion, version});
+                Thread.startVirtualThread(this::resyncPresence);
             }
         });
     }
 
+    private void applyUserStatus(String username, boolean online) {
+        if (online) {
+            if (!userListModel.contains(username) && !username.equals(currentUser)) {
+                userListModel.addElement(username);
+            }
+        } else {
+            userListModel.removeElement(username);
+        }
+    }
+
+    @Override
+    public void onEventsReceived(List<CallbackEvent> events) throws RemoteException {
+        for (CallbackEvent event : events) {
+            event.deliverTo(this);
+        }
+    }
+
+    @Override
+    public void onHistoryChunk(long streamId, List<Message> chunk, boolean last) throws RemoteException {
+        SwingUtilities.invokeLater(() -> {
+            for (Message message : chunk) {
+                displayMessage(message);
+            }
+            if (last) {
+                chatArea.append("--- End of message history ---\n");
+            }
+        });
+    }
+
+    @Override
+    public void ping() throws RemoteException {
+        logger.log(Level.FINE, "Liveness probe received");
+    }
+
     private void displayMessage(Message message) {
         String formattedMessage = String.format("[%s] %s: %s%n",
                 new Date(message.getTimestamp()),
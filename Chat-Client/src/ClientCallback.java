@@ -1,5 +1,6 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface ClientCallback extends Remote {
     void onFileReceived(Message fileMessage) throws RemoteException;
@@ -12,4 +13,14 @@ public interface ClientCallback extends Remote {
     void onRoomMessageReceived(String roomName, Message message) throws RemoteException;
 
     void onUserStatusChanged(String username, boolean online) throws RemoteException;
+
+    void onPresenceSnapshot(PresenceSnapshot snapshot) throws RemoteException;
+
+    void onPresenceDelta(long version, String username, boolean online) throws RemoteException;
+
+    void onEventsReceived(List<CallbackEvent> events) throws RemoteException;
+
+    void onHistoryChunk(long streamId, List<Message> chunk, boolean last) throws RemoteException;
+
+    void ping() throws RemoteException;
 }
@@ -1,5 +1,6 @@
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
 import java.util.logging.Logger;
 
 public class ClientCallbackImpl extends UnicastRemoteObject implements ClientCallback {
@@ -27,6 +28,16 @@ public class ClientCallbackImpl extends UnicastRemoteObject implements ClientCal
         LOGGER.info(() -> String.format("User status changed: %s is now %s", username, status));
     }
 
+    @Override
+    public void onPresenceSnapshot(PresenceSnapshot snapshot) throws RemoteException {
+        LOGGER.info(() -> String.format("Presence snapshot %d: %d users online", snapshot.getVersion(), snapshot.getOnlineUsers().length));
+    }
+
+    @Override
+    public void onPresenceDelta(long version, String username, boolean online) throws RemoteException {
+        onUserStatusChanged(username, online);
+    }
+
     @Override
     public void onFileReceived(Message fileMessage) throws RemoteException {
         LOGGER.info(() -> String.format("New file received from %s: %s", fileMessage.getSender(), fileMessage.getFileName()));
@@ -37,6 +48,24 @@ public class ClientCallbackImpl extends UnicastRemoteObject implements ClientCal
         LOGGER.info(() -> String.format("New file received in room %s from %s: %s", roomName, fileMessage.getSender(), fileMessage.getFileName()));
     }
 
+    @Override
+    public void onEventsReceived(List<CallbackEvent> events) throws RemoteException {
+        LOGGER.info(() -> String.format("Received batch of %d events", events.size()));
+        for (CallbackEvent event : events) {
+            event.deliverTo(this);
+        }
+    }
+
+    @Override
+    public void onHistoryChunk(long streamId, List<Message> chunk, boolean last) throws RemoteException {
+        LOGGER.info(() -> String.format("History stream %d: received %d messages%s", streamId, chunk.size(), last ? " (complete)" : ""));
+    }
+
+    @Override
+    public void ping() throws RemoteException {
+        LOGGER.fine(() -> String.format("Liveness probe received for user: %s", username));
+    }
+
 
 
     @Override
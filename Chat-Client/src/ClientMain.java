@@ -156,7 +156,7 @@ public class ClientMain {
         if (LOGGER.isLoggable(Level.INFO)) {
             LOGGER.log(Level.INFO, "Deleting chat room: {0} by owner: {1}", new Object[]{roomToDelete, owner});
         }
-        client.deleteRoom(roomToDelete, owner);
+        client.deleteRoom(owner, roomToDelete);
     }
 
     private static void handleExit(Scanner scanner) {
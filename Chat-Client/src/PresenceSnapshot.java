@@ -0,0 +1,23 @@
+import java.io.Serial;
+import java.io.Serializable;
+
+public final class PresenceSnapshot implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final String[] onlineUsers;
+
+    public PresenceSnapshot(long version, String[] onlineUsers) {
+        this.version = version;
+        this.onlineUsers = onlineUsers;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String[] getOnlineUsers() {
+        return onlineUsers.clone();
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public final class BlobStore {
+    private static final HexFormat HEX = HexFormat.of();
+    private static final int HASH_BYTES = 32;
+    private static final int HASH_LENGTH = HASH_BYTES * 2;
+    private static final String JOURNAL_FILE = "refs.log";
+    private static final String TEMP_DIR = "tmp";
+    private static final byte RETAIN = 1;
+    private static final byte RELEASE = 2;
+    private static final byte SNAPSHOT = 3;
+
+    private final Path root;
+    private final Path tempDir;
+    private final long gcGraceMillis;
+    private final Map<String, Integer> refCounts = new HashMap<>();
+    private final Object lock = new Object();
+    private final ByteBuffer journalRecord = ByteBuffer.allocate(1 + HASH_BYTES);
+    private final ScheduledExecutorService gcScheduler;
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+    private final Logger logger = Logger.getInstance();
+    private FileChannel journal;
+
+    public BlobStore() {
+        this(Paths.get(ServerConfig.getString("CHAT_BLOB_DIR", "./chat-blobs")),
+                ServerConfig.getLong("CHAT_BLOB_GC_INTERVAL_MS", 600_000),
+                ServerConfig.getLong("CHAT_BLOB_GC_GRACE_MS", 3_600_000));
+    }
+
+    public BlobStore(Path root, long gcIntervalMillis, long gcGraceMillis) {
+        this.root = root;
+        this.tempDir = root.resolve(TEMP_DIR);
+        this.gcGraceMillis = gcGraceMillis;
+        try {
+            Files.createDirectories(tempDir);
+            replayJournal();
+            rewriteJournal();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open blob store in " + root, e);
+        }
+        this.gcScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("blob-gc").daemon().factory());
+        gcScheduler.scheduleWithFixedDelay(this::collectGarbage, gcIntervalMillis, gcIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info(() -> "Blob store opened in " + root + " with " + refCounts.size() + " referenced blobs");
+    }
+
+    public static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public String put(byte[] data) throws IOException {
+        String hash = HEX.formatHex(newDigest().digest(data));
+        Path target = pathFor(hash);
+        synchronized (lock) {
+            if (Files.exists(target)) {
+                deduplicated.incrementAndGet();
+                appendJournal(RETAIN, hash);
+                return hash;
+            }
+        }
+        Path temp = newTempFile();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        commit(temp, hash);
+        return hash;
+    }
+
+    Path newTempFile() {
+        return tempDir.resolve(UUID.randomUUID() + ".tmp");
+    }
+
+    void commit(Path temp, String hash) throws IOException {
+        Path target = pathFor(hash);
+        synchronized (lock) {
+            if (Files.exists(target)) {
+                Files.deleteIfExists(temp);
+                deduplicated.incrementAndGet();
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                long size = Files.size(target);
+                logger.debug(() -> "Stored blob " + hash + " (" + size + " bytes)");
+            }
+            appendJournal(RETAIN, hash);
+        }
+    }
+
+    public void retain(String hash) throws IOException {
+        synchronized (lock) {
+            if (!Files.exists(pathFor(requireValid(hash)))) {
+                throw new NoSuchFileException(hash);
+            }
+            appendJournal(RETAIN, hash);
+        }
+    }
+
+    public void release(String hash) {
+        if (!isValidHash(hash)) {
+            return;
+        }
+        synchronized (lock) {
+            try {
+                appendJournal(RELEASE, hash);
+            } catch (IOException e) {
+                logger.error(() -> "Failed to release blob " + hash + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean contains(String hash) {
+        return isValidHash(hash) && Files.exists(pathFor(hash));
+    }
+
+    public long size(String hash) throws IOException {
+        return Files.size(pathFor(requireValid(hash)));
+    }
+
+    public byte[] read(String hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathFor(requireValid(hash)), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Blob " + hash + " is too large to read at once");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Blob " + hash + " was truncated while reading");
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    public byte[] read(String hash, long offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathFor(requireValid(hash)), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (offset < 0 || offset > size) {
+                throw new EOFException("Offset " + offset + " is outside blob " + hash + " of " + size + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Math.max(length, 0), size - offset));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Blob " + hash + " was truncated while reading");
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    public int collectGarbage() {
+        long cutoff = System.currentTimeMillis() - gcGraceMillis;
+        List<Path> candidates = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(root, 3)) {
+            files.filter(Files::isRegularFile).forEach(candidates::add);
+        } catch (IOException e) {
+            logger.error(() -> "Blob garbage collection failed: " + e.getMessage());
+            return 0;
+        }
+        int removed = 0;
+        for (Path path : candidates) {
+            String name = path.getFileName().toString();
+            boolean temp = path.getParent().equals(tempDir);
+            if (!temp && !isValidHash(name)) {
+                continue;
+            }
+            try {
+                if (Files.getLastModifiedTime(path).toMillis() >= cutoff) {
+                    continue;
+                }
+                synchronized (lock) {
+                    if (temp || !refCounts.containsKey(name)) {
+                        Files.deleteIfExists(path);
+                        removed++;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn(() -> "Could not collect " + path + ": " + e.getMessage());
+            }
+        }
+        if (removed > 0) {
+            collected.addAndGet(removed);
+            int count = removed;
+            logger.info(() -> "Blob garbage collection removed " + count + " unreferenced files");
+        }
+        return removed;
+    }
+
+    public int getBlobCount() {
+        synchronized (lock) {
+            return refCounts.size();
+        }
+    }
+
+    public int getReferenceCount(String hash) {
+        synchronized (lock) {
+            return refCounts.getOrDefault(hash, 0);
+        }
+    }
+
+    public long getDeduplicatedCount() {
+        return deduplicated.get();
+    }
+
+    public long getCollectedCount() {
+        return collected.get();
+    }
+
+    public void close() {
+        gcScheduler.shutdownNow();
+        synchronized (lock) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn(() -> "Failed to close blob journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private Path pathFor(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static String requireValid(String hash) throws IOException {
+        if (!isValidHash(hash)) {
+            throw new NoSuchFileException(String.valueOf(hash));
+        }
+        return hash;
+    }
+
+    private void appendJournal(byte op, String hash) throws IOException {
+        journalRecord.clear();
+        journalRecord.put(op).put(HEX.parseHex(hash));
+        journalRecord.flip();
+        while (journalRecord.hasRemaining()) {
+            journal.write(journalRecord);
+        }
+        journal.force(false);
+        int count = refCounts.getOrDefault(hash, 0) + (op == RETAIN ? 1 : -1);
+        if (count > 0) {
+            refCounts.put(hash, count);
+        } else {
+            refCounts.remove(hash);
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        Path path = root.resolve(JOURNAL_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        byte[] raw = new byte[HASH_BYTES];
+        while (in.remaining() >= 1 + HASH_BYTES) {
+            byte op = in.get();
+            in.get(raw);
+            String hash = HEX.formatHex(raw);
+            int count = refCounts.getOrDefault(hash, 0);
+            switch (op) {
+                case RETAIN -> count++;
+                case RELEASE -> count--;
+                case SNAPSHOT -> {
+                    if (in.remaining() < Integer.BYTES) {
+                        in.position(in.limit());
+                        continue;
+                    }
+                    count = in.getInt();
+                }
+                default -> {
+                    logger.warn(() -> "Blob journal is corrupt, ignoring the remainder");
+                    in.position(in.limit());
+                    continue;
+                }
+            }
+            if (count > 0) {
+                refCounts.put(hash, count);
+            } else {
+                refCounts.remove(hash);
+            }
+        }
+    }
+
+    private void rewriteJournal() throws IOException {
+        Path path = root.resolve(JOURNAL_FILE);
+        Path temp = root.resolve(JOURNAL_FILE + ".tmp");
+        ByteBuffer snapshot = ByteBuffer.allocate(refCounts.size() * (1 + HASH_BYTES + Integer.BYTES));
+        for (Map.Entry<String, Integer> entry : refCounts.entrySet()) {
+            snapshot.put(SNAPSHOT).put(HEX.parseHex(entry.getKey())).putInt(entry.getValue());
+        }
+        snapshot.flip();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
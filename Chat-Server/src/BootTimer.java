@@ -0,0 +1,30 @@
+import java.util.concurrent.TimeUnit;
+
+public final class BootTimer {
+    private final String name;
+    private final long start = System.nanoTime();
+    private final StringBuilder phases = new StringBuilder();
+    private long mark = start;
+    private final Logger logger = Logger.getInstance();
+
+    public BootTimer(String name) {
+        this.name = name;
+    }
+
+    public void phase(String phase) {
+        long now = System.nanoTime();
+        if (!phases.isEmpty()) {
+            phases.append(", ");
+        }
+        phases.append(phase).append(' ').append(TimeUnit.NANOSECONDS.toMillis(now - mark)).append(" ms");
+        mark = now;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    public void report() {
+        logger.info(() -> name + " ready in " + getElapsedMillis() + " ms (" + phases + ")");
+    }
+}
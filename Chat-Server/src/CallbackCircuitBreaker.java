@@ -0,0 +1,65 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public final class CallbackCircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int probeFailures;
+    private long openedAt;
+
+    public CallbackCircuitBreaker(int failureThreshold) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean allowDelivery() {
+        return state != State.OPEN;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeFailures = 0;
+    }
+
+    public synchronized State recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+        return state;
+    }
+
+    public synchronized boolean isProbeDue(long retryDelayMillis) {
+        return state == State.OPEN && System.nanoTime() - openedAt >= TimeUnit.MILLISECONDS.toNanos(retryDelayMillis);
+    }
+
+    public boolean tryStartProbe() {
+        return probing.compareAndSet(false, true);
+    }
+
+    public synchronized void recordProbeSuccess() {
+        probing.set(false);
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+        }
+    }
+
+    public synchronized int recordProbeFailure() {
+        probing.set(false);
+        openedAt = System.nanoTime();
+        return ++probeFailures;
+    }
+}
@@ -0,0 +1,75 @@
+import java.io.Serial;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+public final class CallbackEvent implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public enum Type {
+        MESSAGE,
+        ROOM_MESSAGE,
+        FILE,
+        ROOM_FILE
+    }
+
+    private final Type type;
+    private final String roomName;
+    private final Message message;
+    private transient volatile CallbackEvent compressedVariant;
+
+    private CallbackEvent(Type type, String roomName, Message message) {
+        this.type = type;
+        this.roomName = roomName;
+        this.message = message;
+    }
+
+    public static CallbackEvent message(Message message) {
+        return new CallbackEvent(Type.MESSAGE, null, message);
+    }
+
+    public static CallbackEvent roomMessage(String roomName, Message message) {
+        return new CallbackEvent(Type.ROOM_MESSAGE, roomName, message);
+    }
+
+    public static CallbackEvent file(Message fileMessage) {
+        return new CallbackEvent(Type.FILE, null, fileMessage);
+    }
+
+    public static CallbackEvent roomFile(String roomName, Message fileMessage) {
+        return new CallbackEvent(Type.ROOM_FILE, roomName, fileMessage);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public CallbackEvent compressedFor(PayloadCodec codec) {
+        CallbackEvent variant = compressedVariant;
+        if (variant == null) {
+            Message packed = codec.compress(message);
+            variant = packed == message ? this : new CallbackEvent(type, roomName, packed);
+            compressedVariant = variant;
+        } else if (variant != this) {
+            codec.recordShared(variant.message);
+        }
+        return variant;
+    }
+
+    public void deliverTo(ClientCallback callback) throws RemoteException {
+        switch (type) {
+            case MESSAGE -> callback.onMessageReceived(message);
+            case ROOM_MESSAGE -> callback.onRoomMessageReceived(roomName, message);
+            case FILE -> callback.onFileReceived(message);
+            case ROOM_FILE -> callback.onRoomFileReceived(roomName, message);
+        }
+    }
+}
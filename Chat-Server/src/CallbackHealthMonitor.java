@@ -0,0 +1,57 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public final class CallbackHealthMonitor {
+    private final DeliveryDispatcher deliveryDispatcher;
+    private final long retryDelayMillis;
+    private final int maxProbeFailures;
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger = Logger.getInstance();
+
+    public CallbackHealthMonitor(DeliveryDispatcher deliveryDispatcher) {
+        this(deliveryDispatcher,
+                ServerConfig.getLong("CHAT_PROBE_INTERVAL_MS", 5000),
+                ServerConfig.getLong("CHAT_CIRCUIT_RETRY_MS", 10000),
+                ServerConfig.getInt("CHAT_MAX_PROBE_FAILURES", 6));
+    }
+
+    public CallbackHealthMonitor(DeliveryDispatcher deliveryDispatcher, long probeIntervalMillis,
+                                 long retryDelayMillis, int maxProbeFailures) {
+        this.deliveryDispatcher = deliveryDispatcher;
+        this.retryDelayMillis = retryDelayMillis;
+        this.maxProbeFailures = maxProbeFailures;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("callback-health-monitor").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::probeOpenCircuits, probeIntervalMillis, probeIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void probeOpenCircuits() {
+        for (ClientOutbox outbox : deliveryDispatcher.getOutboxes()) {
+            CallbackCircuitBreaker breaker = outbox.getCircuitBreaker();
+            if (breaker.isProbeDue(retryDelayMillis) && breaker.tryStartProbe()) {
+                Thread.startVirtualThread(() -> probe(outbox, breaker));
+            }
+        }
+    }
+
+    private void probe(ClientOutbox outbox, CallbackCircuitBreaker breaker) {
+        try {
+            outbox.getCallback().ping();
+            breaker.recordProbeSuccess();
+            logger.info(() -> "Liveness probe succeeded for " + outbox.getUsername() + ", circuit half-open");
+        } catch (RemoteException e) {
+            int failures = breaker.recordProbeFailure();
+            logger.warn(() -> "Liveness probe " + failures + " failed for " + outbox.getUsername() + ": " + e.getMessage());
+            if (failures >= maxProbeFailures) {
+                outbox.disconnect();
+            }
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -1,17 +1,23 @@
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChatRoom implements Serializable {
     private final String name;
-    private final List<User> clients;
-    private final List<User> blockedClients;
+    private final ConcurrentHashMap<String, User> clients;
+    private final Set<String> blockedClients;
+    private volatile List<User> clientSnapshot;
+    private final transient RecentMessageRing recentMessages;
     private final transient Logger logger = Logger.getInstance();
     private static final String USER_LABEL = "User ";
     public ChatRoom(String name) {
         this.name = name;
-        this.clients = new ArrayList<>();
-        blockedClients = new ArrayList<>();
+        this.clients = new ConcurrentHashMap<>();
+        this.blockedClients = ConcurrentHashMap.newKeySet();
+        this.clientSnapshot = List.of();
+        this.recentMessages = new RecentMessageRing(ServerConfig.getInt("CHAT_ROOM_RECENT_MESSAGES", 200));
     }
 
 
@@ -20,41 +26,85 @@ public class ChatRoom implements Serializable {
     }
 
     public void addClient(User client) {
-        if (!clients.contains(client)) {
-            clients.add(client);
+        if (clients.putIfAbsent(client.getUsername(), client) == null) {
+            refreshSnapshot();
             logger.info(USER_LABEL + client.getUsername() + " joined room: " + name);
         }
     }
 
+    public void addMembers(Collection<User> members) {
+        boolean added = false;
+        for (User member : members) {
+            added |= clients.putIfAbsent(member.getUsername(), member) == null;
+        }
+        if (added) {
+            refreshSnapshot();
+        }
+    }
+
     public void removeClient(User client) {
-        clients.remove(client);
+        if (clients.remove(client.getUsername()) != null) {
+            refreshSnapshot();
+        }
         logger.info(USER_LABEL + client.getUsername() + " left room: " + name);
     }
 
     public void blockClient(User client) {
-        blockedClients.add(client);
-        clients.remove(client);
+        blockedClients.add(client.getUsername());
+        if (clients.remove(client.getUsername()) != null) {
+            refreshSnapshot();
+        }
         logger.warn(USER_LABEL + client.getUsername() + " blocked in room: " + name);
     }
 
     public void broadcastMessage(User sender, String message) {
-        logger.info("Broadcasting message in room " + name + " from user: " + sender.getUsername() + ": " + message);
+        logger.info(() -> "Broadcasting message in room " + name + " from user: " + sender.getUsername() + ": " + message);
 
-        for (User client : clients) {
-            if (!blockedClients.contains(client) && !client.equals(sender)) {
-                logger.info("Message delivered to " + client.getUsername() + " in room: " + name);
+        for (User client : clientSnapshot) {
+            String username = client.getUsername();
+            if (!blockedClients.contains(username) && !username.equals(sender.getUsername())) {
+                logger.debug(() -> "Message delivered to " + username + " in room: " + name);
             } else {
-                logger.info("Message blocked for user " + client.getUsername() + " in room: " + name);
+                logger.debug(() -> "Message blocked for user " + username + " in room: " + name);
             }
         }
     }
 
     public boolean isUserInRoom(User user) {
-        return clients.contains(user);
+        return clients.containsKey(user.getUsername());
+    }
+
+    public boolean hasMember(String username) {
+        return clients.containsKey(username);
+    }
+
+    public boolean isBlocked(String username) {
+        return blockedClients.contains(username);
+    }
+
+    public void recordMessage(Message message) {
+        if (message.getFileData() == null) {
+            recentMessages.add(message);
+            return;
+        }
+        Message summary = new Message(message.getSender(), message.getRecipient(), message.getContent(), message.getTimestamp());
+        summary.setId(message.getId());
+        summary.setRoomMessage(true);
+        summary.setFileHash(message.getFileHash());
+        summary.setFileSize(message.getFileSize());
+        recentMessages.add(summary);
+    }
+
+    public RecentMessageRing getRecentMessages() {
+        return recentMessages;
     }
 
     public List<User> getClients() {
-        return new ArrayList<>(clients);
+        return clientSnapshot;
+    }
+
+    private synchronized void refreshSnapshot() {
+        clientSnapshot = List.copyOf(clients.values());
     }
 
-}
\ No newline at end of file
+}
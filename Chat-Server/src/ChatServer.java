@@ -8,6 +8,7 @@ public class ChatServer {
     public static void main(String[] args) {
         try {
             logger.info("Initializing Chat Server...");
+            BootTimer bootTimer = new BootTimer("Chat server");
 
 
             System.setProperty("java.security.policy", "SecurityPolicy.policy");
@@ -15,18 +16,41 @@ public class ChatServer {
             logger.info("System properties set successfully");
 
 
-            ChatService chatService = new ChatServiceImpl();
+            ChatServiceImpl chatService = new ChatServiceImpl();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                chatService.shutdown();
+                logger.close();
+            }, "chat-server-shutdown"));
             logger.info("Chat service implementation initialized");
+            bootTimer.phase("service");
 
 
             Registry registry = LocateRegistry.createRegistry(PORT);
             registry.rebind("ChatService", chatService);
-            logger.info("RMI Registry created and bound on port " + PORT);
+            logger.info(() -> "RMI Registry created and bound on port " + PORT);
+            bootTimer.phase("registry");
+
+            int gatewayPort = ServerConfig.getInt("CHAT_GATEWAY_PORT", 0);
+            if (gatewayPort > 0) {
+                NioGateway gateway = new NioGateway(chatService, gatewayPort);
+                Runtime.getRuntime().addShutdownHook(new Thread(gateway::close, "nio-gateway-shutdown"));
+                logger.info(() -> "Binary gateway listening on " + gateway.getAddress());
+                bootTimer.phase("gateway");
+            }
+
+            int httpPort = ServerConfig.getInt("CHAT_HTTP_PORT", 0);
+            if (httpPort > 0) {
+                HttpGateway httpGateway = new HttpGateway(chatService, httpPort);
+                Runtime.getRuntime().addShutdownHook(new Thread(httpGateway::close, "http-gateway-shutdown"));
+                logger.info(() -> "HTTP gateway listening on " + httpGateway.getAddress());
+                bootTimer.phase("http gateway");
+            }
 
             logger.info("Chat server started successfully and ready for connections");
+            bootTimer.report();
 
         } catch (Exception e) {
-            logger.error("Server initialization failed: " + e.getMessage());
+            logger.error(() -> "Server initialization failed: " + e.getMessage());
         }
     }
 }
\ No newline at end of file
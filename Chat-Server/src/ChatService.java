@@ -5,6 +5,8 @@ import java.util.List;
 public interface ChatService extends Remote {
     boolean signIn(String username, String password) throws RemoteException;
 
+    int negotiateCompression(String username, int supportedCodecs) throws RemoteException;
+
     void signOut(String username) throws RemoteException;
 
     void signUp(String username, String password, String firstName, String lastName) throws RemoteException;
@@ -15,6 +17,8 @@ public interface ChatService extends Remote {
 
     void addChatRoom(String roomName) throws RemoteException;
 
+    void deleteRoom(String username, String roomName) throws RemoteException;
+
 
     void registerCallback(String username, ClientCallback callback) throws RemoteException;
 
@@ -33,13 +37,37 @@ public interface ChatService extends Remote {
 
     List<Message> getMessageHistory(String signedInUser) throws RemoteException;
 
+    List<Message> getConversationHistory(String signedInUser, String partner, long beforeId, int limit) throws RemoteException;
+
+    List<Message> getRecentMessages(String signedInUser, long beforeId, int limit) throws RemoteException;
+
+    List<Message> getRoomHistory(String roomName, long beforeId, int limit) throws RemoteException;
+
+    long streamMessageHistory(String signedInUser, int chunkSize) throws RemoteException;
+
+    List<Message> searchMessages(String signedInUser, String query, String roomName, String partner, int offset, int limit) throws RemoteException;
+
     String[] getRoomClients(String roomName) throws RemoteException;
 
     String[] getOnlineUsers() throws RemoteException;
 
+    PresenceSnapshot getPresenceSnapshot() throws RemoteException;
+
     String[] getAvailableRooms() throws RemoteException;
 
     void sendFile(String sender, String recipient, byte[] fileData, String fileName) throws RemoteException;
 
     void sendFileToRoom(String sender, String roomName, byte[] fileData, String fileName) throws RemoteException;
+
+    String beginUpload(String sender, String fileName, long fileSize) throws RemoteException;
+
+    long uploadChunk(String sender, String uploadId, long offset, byte[] data, long checksum) throws RemoteException;
+
+    long getUploadOffset(String sender, String uploadId) throws RemoteException;
+
+    boolean commitUpload(String sender, String uploadId, String recipient, boolean roomUpload) throws RemoteException;
+
+    void abortUpload(String sender, String uploadId) throws RemoteException;
+
+    byte[] downloadFile(String signedInUser, String fileHash, long offset, int length) throws RemoteException;
 }
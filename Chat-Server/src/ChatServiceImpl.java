@@ -1,17 +1,47 @@
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 
 public final class ChatServiceImpl extends UnicastRemoteObject implements ChatService {
-    private final transient DbContext dbHelper;
+    private final transient ChatStore dbHelper;
     private final transient ConcurrentHashMap<String, ClientCallback> connectedClients;
     private final ConcurrentHashMap<String, ChatRoom> chatRooms;
     private final ConcurrentHashMap<String, User> userProfiles;
+    private final transient UserCache userCache;
+    private final transient DeliveryDispatcher deliveryDispatcher;
+    private final transient PresenceBroadcaster presenceBroadcaster;
+    private final transient PresenceTracker presenceTracker;
+    private final transient CallbackHealthMonitor callbackHealthMonitor;
+    private final transient MessageSearchIndex searchIndex;
+    private final transient BlobStore blobStore;
+    private final transient UploadManager uploadManager;
+    private final transient SharedFileCache sharedFileCache;
+    private final transient ConcurrentHashMap<String, PayloadCodec> payloadCodecs = new ConcurrentHashMap<>();
+    private final transient boolean compressionEnabled =
+            !"none".equalsIgnoreCase(ServerConfig.getString("CHAT_COMPRESSION", "deflate"));
+    private final transient int compressionThreshold =
+            ServerConfig.getInt("CHAT_COMPRESSION_THRESHOLD", PayloadCodec.DEFAULT_THRESHOLD);
+    private final transient AtomicLong historyStreamIds = new AtomicLong();
+    private final transient Set<String> adminUsers = Arrays.stream(ServerConfig.getString("CHAT_ADMIN_USERS", "").split(","))
+            .map(String::trim)
+            .filter(name -> !name.isEmpty())
+            .collect(Collectors.toUnmodifiableSet());
     private final transient Logger logger = Logger.getInstance();
     private static final String USER_ENTITY = "User ";
+    private static final int MAX_HISTORY_PAGE = 200;
+    private static final int MAX_HISTORY_CHUNK = 500;
+    private static final int MAX_DOWNLOAD_CHUNK = 4 * 1024 * 1024;
 
     @Override
     public boolean equals(Object obj) {
@@ -35,109 +65,198 @@ public final class ChatServiceImpl extends UnicastRemoteObject implements ChatSe
 
     public ChatServiceImpl() throws RemoteException {
         logger.info("Initializing ChatServiceImpl");
-        dbHelper = DbContext.getInstance("chat_app", "root", "amirouv@#$%4321");
+        BootTimer bootTimer = new BootTimer("Chat service");
+        Message.setNameSharing(!"false".equalsIgnoreCase(ServerConfig.getString("CHAT_MESSAGE_SHARE_NAMES", "true")));
+        dbHelper = openStore();
+        bootTimer.phase("store");
         connectedClients = new ConcurrentHashMap<>();
         chatRooms = new ConcurrentHashMap<>();
         userProfiles = new ConcurrentHashMap<>();
+        userCache = new UserCache(userProfiles, dbHelper::getUser);
+        deliveryDispatcher = new DeliveryDispatcher(this::onClientDisconnected);
+        presenceBroadcaster = new PresenceBroadcaster(this::onClientDisconnected);
+        presenceTracker = new PresenceTracker();
+        callbackHealthMonitor = new CallbackHealthMonitor(deliveryDispatcher);
+        searchIndex = new MessageSearchIndex();
+        blobStore = new BlobStore();
+        uploadManager = new UploadManager(blobStore);
+        sharedFileCache = new SharedFileCache(blobStore);
+        bootTimer.phase("blob store");
 
         for (ChatRoom room : dbHelper.getAllRooms()) {
             chatRooms.put(room.getName(), room);
+            for (User member : room.getClients()) {
+                userCache.put(member);
+            }
         }
+        bootTimer.phase("rooms");
+        rebuildSearchIndex();
+        bootTimer.phase("search index");
+        bootTimer.report();
 
         logger.info("ChatServiceImpl initialized successfully");
     }
 
+    private static ChatStore openStore() {
+        ChatStore.Backend backend = ServerConfig.getEnum("CHAT_STORE", ChatStore.Backend.class, ChatStore.Backend.MYSQL);
+        Logger.getInstance().info(() -> "Using " + backend.name().toLowerCase() + " message store");
+        if (backend == ChatStore.Backend.SEGMENT) {
+            return new SegmentChatStore();
+        }
+        return DbContext.getInstance("chat_app", "root", "amirouv@#$%4321");
+    }
+
     @Override
     public boolean signIn(String username, String password) throws RemoteException {
-        logger.info("Sign in attempt for user: " + username);
+        logger.info(() -> "Sign in attempt for user: " + username);
 
         if (dbHelper.authenticateUser(username, password)) {
-            User user = dbHelper.getUser(username);
+            User user = userCache.get(username);
             if (user != null) {
                 userProfiles.put(username, user);
                 notifyUserStatus(username, true);
-                logger.info("User successfully signed in: " + username);
+                logger.info(() -> "User successfully signed in: " + username);
                 return true;
             }
         }
 
-        logger.warn("Failed sign in attempt for user: " + username);
+        logger.warn(() -> "Failed sign in attempt for user: " + username);
         return false;
     }
 
+    @Override
+    public int negotiateCompression(String username, int supportedCodecs) throws RemoteException {
+        if (!userProfiles.containsKey(username)) {
+            logger.warn(() -> "Compression negotiation rejected for user who is not signed in: " + username);
+            return PayloadCodec.NONE;
+        }
+        int codec = compressionEnabled && (supportedCodecs & PayloadCodec.SUPPORTED_CODECS) != 0
+                ? PayloadCodec.DEFLATE
+                : PayloadCodec.NONE;
+        payloadCodecs.put(username, new PayloadCodec(codec, compressionThreshold));
+        applyPayloadCodec(username);
+        logger.info(() -> "Negotiated " + (codec == PayloadCodec.DEFLATE ? "deflate" : "no") + " compression for " + username);
+        return codec;
+    }
+
+    private static boolean isGatewayCallback(ClientCallback callback) {
+        return callback instanceof GatewayCallback || callback instanceof SseCallback;
+    }
+
+    private void applyPayloadCodec(String username) {
+        ClientOutbox outbox = deliveryDispatcher.getOutbox(username);
+        if (outbox != null && !isGatewayCallback(outbox.getCallback())) {
+            outbox.setPayloadCodec(payloadCodecs.get(username));
+        }
+    }
+
+    private void releasePayloadCodec(String username) {
+        PayloadCodec codec = payloadCodecs.remove(username);
+        if (codec != null && codec.isEnabled()) {
+            logger.info(() -> "Compression for " + username + ": " + codec.getStats());
+        }
+    }
+
+    private List<Message> compressFor(String username, List<Message> messages) {
+        PayloadCodec codec = payloadCodecs.get(username);
+        if (codec == null || !codec.isEnabled()) {
+            return messages;
+        }
+        List<Message> packed = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            packed.add(codec.compress(message));
+        }
+        return packed;
+    }
+
+    public Map<String, PayloadCodec.Stats> getCompressionStats() {
+        Map<String, PayloadCodec.Stats> stats = new HashMap<>();
+        payloadCodecs.forEach((username, codec) -> stats.put(username, codec.getStats()));
+        return stats;
+    }
+
     @Override
     public void signOut(String username) throws RemoteException {
-        logger.info("Sign out attempt for user: " + username);
+        logger.info(() -> "Sign out attempt for user: " + username);
         if (connectedClients.containsKey(username)) {
             connectedClients.remove(username);
+            deliveryDispatcher.unregister(username);
+            releasePayloadCodec(username);
             notifyUserStatus(username, false);
-            logger.info("User successfully signed out: " + username);
+            logger.info(() -> "User successfully signed out: " + username);
         } else {
-            logger.warn("Failed sign out attempt for user: " + username);
+            logger.warn(() -> "Failed sign out attempt for user: " + username);
         }
     }
 
 
     @Override
     public void signUp(String username, String password, String firstName, String lastName) throws RemoteException {
-        logger.info("New " + USER_ENTITY.toLowerCase() + " registration attempt: " + username);
+        logger.info(() -> "New " + USER_ENTITY.toLowerCase() + " registration attempt: " + username);
         User newUser = UserFactory.createUser("regular", username, password, firstName, lastName);
+        userCache.invalidate(username);
         if (dbHelper.addUser(newUser)) {
             userProfiles.put(username, newUser);
             logger.info(USER_ENTITY + " registered successfully: " + username);
         } else {
-            logger.error("Failed to register " + USER_ENTITY.toLowerCase() + ": " + username);
+            logger.error(() -> "Failed to register " + USER_ENTITY.toLowerCase() + ": " + username);
         }
     }
 
     @Override
     public void sendMessage(String sender, String recipient, String content) throws RemoteException {
-        logger.info("Message sending attempt from " + sender + " to " + recipient);
-        User senderUser = dbHelper.getUser(sender);
-        User recipientUser = dbHelper.getUser(recipient);
-
-        if (senderUser != null && recipientUser != null) {
+        logger.info(() -> "Message sending attempt from " + sender + " to " + recipient);
+        if (userCache.exists(sender) && userCache.exists(recipient)) {
             Message chatMessage = new Message(sender, recipient, content, System.currentTimeMillis());
             dbHelper.saveMessage(chatMessage);
+            searchIndex.index(chatMessage);
 
-            ClientCallback recipientCallback = connectedClients.get(recipient);
-            if (recipientCallback != null) {
-                recipientCallback.onMessageReceived(chatMessage);
-                logger.info("Message delivered successfully from " + sender + " to " + recipient);
+            if (deliveryDispatcher.enqueue(recipient, CallbackEvent.message(chatMessage))) {
+                logger.debug(() -> "Message queued for delivery from " + sender + " to " + recipient);
             } else {
-                logger.warn("Recipient offline, message stored: " + recipient);
+                logger.warn(() -> "Recipient offline or unreachable, message stored: " + recipient);
             }
         } else {
-            logger.error("Message sending failed - invalid users: " + sender + " -> " + recipient);
+            logger.error(() -> "Message sending failed - invalid users: " + sender + " -> " + recipient);
         }
     }
 
 
     @Override
     public void registerCallback(String username, ClientCallback callback) {
-        logger.info("Registering callback for user: " + username);
+        logger.info(() -> "Registering callback for user: " + username);
         connectedClients.put(username, callback);
+        deliveryDispatcher.register(username, callback);
+        applyPayloadCodec(username);
         notifyUserStatus(username, true);
         try {
-            for (String existingUser : connectedClients.keySet()) {
-                if (!existingUser.equals(username)) {
-                    callback.onUserStatusChanged(existingUser, true);
-                }
-            }
-            logger.info("Callback registered successfully for: " + username);
+            callback.onPresenceSnapshot(presenceTracker.snapshot());
+            logger.info(() -> "Callback registered successfully for: " + username);
         } catch (RemoteException e) {
             connectedClients.remove(username);
-            logger.error("Callback registration failed for " + username + ": " + e.getMessage());
+            deliveryDispatcher.unregister(username);
+            logger.error(() -> "Callback registration failed for " + username + ": " + e.getMessage());
         }
     }
 
     @Override
     public void unregisterCallback(String username) throws RemoteException {
-        logger.info("Unregistering callback for user: " + username);
+        logger.info(() -> "Unregistering callback for user: " + username);
         connectedClients.remove(username);
-        userProfiles.remove(username);
+        deliveryDispatcher.unregister(username);
+        releasePayloadCodec(username);
+        User profile = userProfiles.remove(username);
+        if (profile != null) {
+            userCache.put(profile);
+        }
         notifyUserStatus(username, false);
-        logger.info("Callback unregistered for user: " + username);
+        logger.info(() -> "Callback unregistered for user: " + username);
+    }
+
+    public void releaseCallback(String username, ClientCallback callback) throws RemoteException {
+        if (callback != null && connectedClients.get(username) == callback) {
+            unregisterCallback(username);
+        }
     }
 
 
@@ -145,20 +264,21 @@ public final class ChatServiceImpl extends UnicastRemoteObject implements ChatSe
     @Override
     public boolean joinRoom(String username, String roomName) throws RemoteException {
         logger.info(USER_ENTITY + username + " attempting to join room: " + roomName);
-        if (chatRooms.containsKey(roomName)) {
+        ChatRoom room = chatRooms.get(roomName);
+        if (room != null) {
+            if (room.hasMember(username)) {
+                logger.info(USER_ENTITY + username + " already in room: " + roomName);
+                return true;
+            }
             User user = userProfiles.get(username);
-            if (user != null && !dbHelper.isUserInRoom(username, roomName)) {
-                chatRooms.get(roomName).addClient(user);
+            if (user != null) {
+                room.addClient(user);
                 dbHelper.saveRoomMember(username, roomName);
                 logger.info(USER_ENTITY + username + " joined room: " + roomName);
                 return true;
             }
-            if (dbHelper.isUserInRoom(username, roomName)) {
-                logger.info(USER_ENTITY + username + " already in room: " + roomName);
-                return true;
-            }
         }
-        logger.warn("Failed to join room " + roomName + " - room not found or user invalid");
+        logger.warn(() -> "Failed to join room " + roomName + " - room not found or user invalid");
         return false;
     }
 
@@ -175,42 +295,173 @@ public final class ChatServiceImpl extends UnicastRemoteObject implements ChatSe
                 return true;
             }
         }
-        logger.warn("Failed to leave room " + roomName + " - room not found");
+        logger.warn(() -> "Failed to leave room " + roomName + " - room not found");
         return false;
     }
 
     @Override
     public boolean isUserInRoom(String username, String roomName) throws RemoteException {
-        logger.info("Checking if " + USER_ENTITY + username + " is in room: " + roomName);
+        logger.debug(() -> "Checking if " + USER_ENTITY + username + " is in room: " + roomName);
         if (chatRooms.containsKey(roomName)) {
             User user = userProfiles.get(username);
             if (user != null) {
                 return chatRooms.get(roomName).isUserInRoom(user);
             }
         }
-        logger.warn("Failed to check user status in room " + roomName + " - room not found");
+        logger.warn(() -> "Failed to check user status in room " + roomName + " - room not found");
         return false;
     }
 
 
     @Override
     public List<Message> getMessageHistory(String signedInUser) throws RemoteException {
-        logger.info("Fetching message history for user: " + signedInUser);
-        return dbHelper.getMessageHistory(signedInUser);
+        logger.info(() -> "Fetching message history for user: " + signedInUser);
+        return compressFor(signedInUser, dbHelper.getMessageHistory(signedInUser));
+    }
+
+    @Override
+    public long streamMessageHistory(String signedInUser, int chunkSize) throws RemoteException {
+        ClientCallback callback = connectedClients.get(signedInUser);
+        if (callback == null) {
+            logger.warn(() -> "History stream requested without a registered callback: " + signedInUser);
+            return 0;
+        }
+        long streamId = historyStreamIds.incrementAndGet();
+        int fetchSize = Math.max(1, Math.min(chunkSize, MAX_HISTORY_CHUNK));
+        logger.info(() -> "Starting history stream " + streamId + " for user: " + signedInUser);
+        Thread.startVirtualThread(() -> {
+            boolean[] ended = new boolean[1];
+            try {
+                dbHelper.streamMessageHistory(signedInUser, fetchSize, chunk -> {
+                    boolean last = chunk.size() < fetchSize;
+                    ended[0] = last;
+                    if (!sendHistoryChunk(callback, signedInUser, streamId, compressFor(signedInUser, chunk), last)) {
+                        ended[0] = true;
+                        return false;
+                    }
+                    return true;
+                });
+            } catch (RuntimeException e) {
+                logger.error(() -> "History stream " + streamId + " for " + signedInUser + " failed: " + e.getMessage());
+            } finally {
+                if (!ended[0]) {
+                    sendHistoryChunk(callback, signedInUser, streamId, List.of(), true);
+                }
+            }
+        });
+        return streamId;
+    }
+
+    private boolean sendHistoryChunk(ClientCallback callback, String signedInUser, long streamId,
+                                     List<Message> chunk, boolean last) {
+        try {
+            callback.onHistoryChunk(streamId, chunk, last);
+            return true;
+        } catch (RemoteException e) {
+            logger.error(() -> "History stream " + streamId + " to " + signedInUser + " failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public List<Message> getConversationHistory(String signedInUser, String partner, long beforeId, int limit) throws RemoteException {
+        logger.info(() -> "Fetching conversation page for " + signedInUser + " with " + partner + " before id " + beforeId);
+        return compressFor(signedInUser, dbHelper.getConversationPage(signedInUser, partner, beforeId, limit));
+    }
+
+    @Override
+    public List<Message> getRecentMessages(String signedInUser, long beforeId, int limit) throws RemoteException {
+        logger.info(() -> "Fetching recent messages for " + signedInUser + " before id " + beforeId);
+        return compressFor(signedInUser, dbHelper.getRecentMessages(signedInUser, beforeId, limit));
+    }
+
+    @Override
+    public List<Message> getRoomHistory(String roomName, long beforeId, int limit) throws RemoteException {
+        ChatRoom room = chatRooms.get(roomName);
+        if (room == null) {
+            logger.warn(() -> "Room history requested for unknown room: " + roomName);
+            return new ArrayList<>();
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+        RecentMessageRing recent = room.getRecentMessages();
+        List<Message> page = recent.page(beforeId, pageSize);
+        if (page != null) {
+            logger.info(() -> "Room history for " + roomName + " served from memory: " + page.size() + " messages");
+            return new ArrayList<>(page);
+        }
+        List<Message> stored = dbHelper.getRoomMessagePage(roomName, beforeId, pageSize);
+        return recent.merge(stored, beforeId, pageSize, stored.size() < pageSize);
+    }
+
+    @Override
+    public List<Message> searchMessages(String signedInUser, String query, String roomName, String partner, int offset, int limit) throws RemoteException {
+        logger.info(() -> "Search by " + signedInUser + " for '" + query + "'"
+                + (roomName != null ? " in room " + roomName : partner != null ? " with " + partner : ""));
+        List<Message> results = new ArrayList<>();
+        if (!userProfiles.containsKey(signedInUser)) {
+            logger.warn(() -> "Search rejected for user who is not signed in: " + signedInUser);
+            return results;
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+        List<MessageSearchIndex.SearchHit> hits = searchIndex.search(signedInUser, query, roomName, partner, offset, pageSize);
+        List<Long> directIds = new ArrayList<>();
+        List<Long> roomMessageIds = new ArrayList<>();
+        for (MessageSearchIndex.SearchHit hit : hits) {
+            (hit.roomMessage() ? roomMessageIds : directIds).add(hit.messageId());
+        }
+        Map<Long, Message> direct = directIds.isEmpty() ? Map.of() : dbHelper.getMessagesByIds(directIds, false);
+        Map<Long, Message> inRooms = roomMessageIds.isEmpty() ? Map.of() : dbHelper.getMessagesByIds(roomMessageIds, true);
+        for (MessageSearchIndex.SearchHit hit : hits) {
+            Message message = (hit.roomMessage() ? inRooms : direct).get(hit.messageId());
+            if (message != null) {
+                results.add(message);
+            }
+        }
+        return compressFor(signedInUser, results);
+    }
+
+    private void indexRoomMessage(Message message) {
+        if (message.getId() > 0) {
+            searchIndex.index(message);
+        }
+    }
+
+    private void rebuildSearchIndex() {
+        long maxMessageId = dbHelper.getLastMessageId();
+        long maxRoomMessageId = dbHelper.getLastRoomMessageId();
+        Thread.startVirtualThread(() -> {
+            long start = System.nanoTime();
+            long scanned = dbHelper.scanStoredMessages(maxMessageId, maxRoomMessageId, searchIndex::index);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            logger.info(() -> "Search index rebuilt from " + scanned + " stored messages in " + elapsedMillis + " ms: "
+                    + searchIndex.getDocumentCount() + " documents, " + searchIndex.getTermCount() + " terms");
+        });
     }
 
     @Override
     public void addChatRoom(String roomName) throws RemoteException {
-        logger.info("Creating new chat room: " + roomName);
+        logger.info(() -> "Creating new chat room: " + roomName);
         ChatRoom newRoom = new ChatRoom(roomName);
-        chatRooms.putIfAbsent(roomName, newRoom);
+        if (chatRooms.putIfAbsent(roomName, newRoom) == null) {
+            newRoom.getRecentMessages().markComplete();
+        }
         dbHelper.saveRoom(newRoom);
-        logger.info("Chat room created successfully: " + roomName);
+        logger.info(() -> "Chat room created successfully: " + roomName);
+    }
+
+    @Override
+    public void deleteRoom(String username, String roomName) throws RemoteException {
+        if (!userProfiles.containsKey(username) || !adminUsers.contains(username)) {
+            logger.warn(() -> "Room deletion of " + roomName + " rejected for " + username);
+            return;
+        }
+        logger.info(() -> "Deleting chat room " + roomName + " on behalf of " + username);
+        deleteChatRoom(roomName);
     }
 
     @Override
     public void sendMessageToRoom(String sender, String roomName, String content) throws RemoteException {
-        logger.info("Room message attempt from " + sender + " to room: " + roomName);
+        logger.info(() -> "Room message attempt from " + sender + " to room: " + roomName);
         if (chatRooms.containsKey(roomName)) {
             ChatRoom room = chatRooms.get(roomName);
             User senderUser = userProfiles.get(sender);
@@ -219,18 +470,19 @@ public final class ChatServiceImpl extends UnicastRemoteObject implements ChatSe
                 Message message = new Message(sender, roomName, content, System.currentTimeMillis());
                 message.setRoomMessage(true);
                 dbHelper.saveRoomMessage(message, roomName);
+                indexRoomMessage(message);
+                room.recordMessage(message);
                 room.broadcastMessage(senderUser, message.getContent());
+                CallbackEvent event = CallbackEvent.roomMessage(roomName, message);
                 for (User client : room.getClients()) {
-                    ClientCallback callback = connectedClients.get(client.getUsername());
-                    if (callback != null) {
-                        callback.onRoomMessageReceived(roomName, message);
-                        logger.info("Room message delivered to: " + client.getUsername());
+                    if (deliveryDispatcher.enqueue(client.getUsername(), event)) {
+                        logger.debug(() -> "Room message queued for: " + client.getUsername());
                     }
                 }
-                logger.info("Room message broadcast completed in " + roomName);
+                logger.info(() -> "Room message broadcast completed in " + roomName);
             }
         } else {
-            logger.warn("Room message failed - room not found: " + roomName);
+            logger.warn(() -> "Room message failed - room not found: " + roomName);
         }
     }
 
@@ -240,23 +492,54 @@ public final class ChatServiceImpl extends UnicastRemoteObject implements ChatSe
         return connectedClients.keySet().toArray(new String[0]);
     }
 
+    @Override
+    public PresenceSnapshot getPresenceSnapshot() throws RemoteException {
+        return presenceTracker.snapshot();
+    }
+
     @Override
     public String[] getAvailableRooms() throws RemoteException {
         return chatRooms.keySet().toArray(new String[0]);
     }
 
     private void notifyUserStatus(String username, boolean online) {
-        logger.info("Notifying user status change: " + username + " - " + (online ? "online" : "offline"));
-        connectedClients.forEach((user, callback) -> {
-            if (!user.equals(username)) {
-                try {
-                    callback.onUserStatusChanged(username, online);
-                } catch (RemoteException e) {
-                    connectedClients.remove(user);
-                    logger.error("Failed to notify user " + user + " about status change: " + e.getMessage());
-                }
+        long version = presenceTracker.update(username, online);
+        if (version == 0) {
+            return;
+        }
+        logger.info(() -> "Notifying user status change: " + username + " - " + (online ? "online" : "offline"));
+        Map<String, ClientCallback> recipients = new HashMap<>(connectedClients);
+        recipients.remove(username);
+        recipients.keySet().removeIf(user -> deliveryDispatcher.isRegistered(user) && !deliveryDispatcher.isReachable(user));
+        presenceBroadcaster.broadcast(recipients, version, username, online);
+    }
+
+    private void onClientDisconnected(String username, ClientCallback callback) {
+        if (connectedClients.remove(username, callback)) {
+            ClientOutbox outbox = deliveryDispatcher.getOutbox(username);
+            if (outbox != null && outbox.getCallback() == callback) {
+                deliveryDispatcher.unregister(username);
             }
-        });
+            presenceBroadcaster.forget(username);
+            logger.warn(() -> "Disconnected unresponsive client: " + username);
+            notifyUserStatus(username, false);
+        }
+    }
+
+    public void shutdown() {
+        logger.info("Shutting down ChatServiceImpl");
+        callbackHealthMonitor.shutdown();
+        dbHelper.close();
+        uploadManager.close();
+        blobStore.close();
+    }
+
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    public Map<String, Integer> getDeliveryQueueDepths() {
+        return deliveryDispatcher.getQueueDepths();
     }
 
     @Override
@@ -270,52 +553,187 @@ public final class ChatServiceImpl extends UnicastRemoteObject implements ChatSe
 
     @Override
     public void sendFile(String sender, String recipient, byte[] fileData, String fileName) throws RemoteException {
-        logger.info("File transfer attempt from " + sender + " to " + recipient + ": " + fileName);
-        User senderUser = dbHelper.getUser(sender);
-        User recipientUser = dbHelper.getUser(recipient);
-
-        if (senderUser != null && recipientUser != null) {
+        logger.info(() -> "File transfer attempt from " + sender + " to " + recipient + ": " + fileName);
+        if (userCache.exists(sender) && userCache.exists(recipient)) {
             Message fileMessage = new Message(sender, recipient, "FILE:" + fileName, System.currentTimeMillis());
-            fileMessage.setFileData(fileData);
-            dbHelper.saveMessage(fileMessage);
-
-            ClientCallback recipientCallback = connectedClients.get(recipient);
-            if (recipientCallback != null) {
-                recipientCallback.onFileReceived(fileMessage);
-                logger.info("File delivered successfully from " + sender + " to " + recipient + ": " + fileName);
-            } else {
-                logger.warn("Recipient offline, file stored: " + recipient);
+            if (!storeFile(fileMessage, fileData)) {
+                return;
             }
+            fileMessage.setFileData(fileData);
+            deliverFile(fileMessage);
         } else {
-            logger.error("File sending failed - invalid users: " + sender + " -> " + recipient);
+            logger.error(() -> "File sending failed - invalid users: " + sender + " -> " + recipient);
         }
     }
 
     @Override
     public void sendFileToRoom(String sender, String roomName, byte[] fileData, String fileName) throws RemoteException {
-        logger.info("Room file transfer attempt from " + sender + " to room: " + roomName);
+        logger.info(() -> "Room file transfer attempt from " + sender + " to room: " + roomName);
         if (chatRooms.containsKey(roomName)) {
             ChatRoom room = chatRooms.get(roomName);
             User senderUser = userProfiles.get(sender);
 
             if (senderUser != null) {
                 Message fileMessage = new Message(sender, roomName, "FILE:" + fileName, System.currentTimeMillis());
-                fileMessage.setFileData(fileData);
-                fileMessage.setRoomMessage(true);
-                dbHelper.saveRoomMessage(fileMessage, roomName);
-
-                for (User client : room.getClients()) {
-                    ClientCallback callback = connectedClients.get(client.getUsername());
-                    if (callback != null && !client.getUsername().equals(sender)) {
-                        callback.onRoomFileReceived(roomName, fileMessage);
-                        logger.info("File delivered to room member: " + client.getUsername());
-                    }
+                if (!storeFile(fileMessage, fileData)) {
+                    return;
                 }
-                logger.info("Room file broadcast completed in " + roomName + ": " + fileName);
+                sharedFileCache.put(fileMessage.getFileHash(), fileData);
+                deliverRoomFile(room, fileMessage);
             }
         } else {
-            logger.warn("Room file transfer failed - room not found: " + roomName);
+            logger.warn(() -> "Room file transfer failed - room not found: " + roomName);
+        }
+    }
+
+    @Override
+    public String beginUpload(String sender, String fileName, long fileSize) throws RemoteException {
+        if (!userProfiles.containsKey(sender)) {
+            logger.warn(() -> "Upload rejected for user who is not signed in: " + sender);
+            return null;
+        }
+        try {
+            return uploadManager.begin(sender, fileName, fileSize);
+        } catch (IOException e) {
+            logger.error(() -> "Failed to start upload of " + fileName + " for " + sender + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public long uploadChunk(String sender, String uploadId, long offset, byte[] data, long checksum) throws RemoteException {
+        try {
+            int maxChunkBytes = uploadManager.getMaxChunkBytes();
+            if (data == null || data.length > maxChunkBytes + PayloadCodec.MAX_OVERHEAD) {
+                logger.warn(() -> "Upload " + uploadId + " chunk from " + sender + " exceeds " + maxChunkBytes + " bytes");
+                return uploadManager.getOffset(sender, uploadId);
+            }
+            PayloadCodec codec = payloadCodecs.get(sender);
+            byte[] chunk = codec != null ? codec.unpack(data, maxChunkBytes) : data;
+            return uploadManager.write(sender, uploadId, offset, chunk, checksum);
+        } catch (IOException e) {
+            logger.error(() -> "Failed to write upload " + uploadId + " at offset " + offset + ": " + e.getMessage());
+            return uploadManager.getOffset(sender, uploadId);
         }
     }
 
-}
\ No newline at end of file
+    @Override
+    public long getUploadOffset(String sender, String uploadId) throws RemoteException {
+        return uploadManager.getOffset(sender, uploadId);
+    }
+
+    @Override
+    public boolean commitUpload(String sender, String uploadId, String recipient, boolean roomUpload) throws RemoteException {
+        ChatRoom room = roomUpload ? chatRooms.get(recipient) : null;
+        boolean validTarget = roomUpload
+                ? room != null && userProfiles.containsKey(sender)
+                : userCache.exists(sender) && userCache.exists(recipient);
+        if (!validTarget) {
+            logger.error(() -> "Upload " + uploadId + " commit failed - invalid target: " + sender + " -> " + recipient);
+            return false;
+        }
+        UploadManager.CompletedUpload upload;
+        try {
+            upload = uploadManager.commit(sender, uploadId);
+        } catch (IOException e) {
+            logger.error(() -> "Failed to commit upload " + uploadId + " from " + sender + ": " + e.getMessage());
+            return false;
+        }
+        Message fileMessage = new Message(sender, recipient, "FILE:" + upload.fileName(), System.currentTimeMillis());
+        fileMessage.setFileHash(upload.fileHash());
+        fileMessage.setFileSize(upload.fileSize());
+        if (roomUpload) {
+            deliverRoomFile(room, fileMessage);
+        } else {
+            deliverFile(fileMessage);
+        }
+        return true;
+    }
+
+    @Override
+    public void abortUpload(String sender, String uploadId) throws RemoteException {
+        uploadManager.abort(sender, uploadId);
+    }
+
+    private void deliverFile(Message fileMessage) {
+        String sender = fileMessage.getSender();
+        String recipient = fileMessage.getRecipient();
+        String fileName = fileMessage.getFileName();
+        dbHelper.saveMessage(fileMessage);
+        searchIndex.index(fileMessage);
+
+        if (deliveryDispatcher.enqueue(recipient, CallbackEvent.file(fileMessage))) {
+            logger.debug(() -> "File queued for delivery from " + sender + " to " + recipient + ": " + fileName);
+        } else {
+            logger.warn(() -> "Recipient offline or unreachable, file stored: " + recipient);
+        }
+    }
+
+    private void deliverRoomFile(ChatRoom room, Message fileMessage) {
+        String roomName = room.getName();
+        fileMessage.setRoomMessage(true);
+        dbHelper.saveRoomMessage(fileMessage, roomName);
+        indexRoomMessage(fileMessage);
+        room.recordMessage(fileMessage);
+        String fileHash = fileMessage.getFileHash();
+        long fileSize = fileMessage.getFileSize();
+        if (!sharedFileCache.contains(fileHash)) {
+            Thread.startVirtualThread(() -> sharedFileCache.prime(fileHash, fileSize));
+        }
+
+        CallbackEvent event = CallbackEvent.roomFile(roomName, fileMessage);
+        for (User client : room.getClients()) {
+            if (!client.getUsername().equals(fileMessage.getSender()) && deliveryDispatcher.enqueue(client.getUsername(), event)) {
+                logger.debug(() -> "File queued for room member: " + client.getUsername());
+            }
+        }
+        logger.info(() -> "Room file broadcast completed in " + roomName + ": " + fileMessage.getFileName());
+    }
+
+    private boolean storeFile(Message fileMessage, byte[] fileData) {
+        try {
+            fileMessage.setFileHash(blobStore.put(fileData));
+            fileMessage.setFileSize(fileData.length);
+            return true;
+        } catch (IOException e) {
+            logger.error(() -> "Failed to store file " + fileMessage.getFileName() + " from " + fileMessage.getSender()
+                    + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public byte[] downloadFile(String signedInUser, String fileHash, long offset, int length) throws RemoteException {
+        if (!userProfiles.containsKey(signedInUser)) {
+            logger.warn(() -> "File download rejected for user who is not signed in: " + signedInUser);
+            return null;
+        }
+        try {
+            byte[] data = sharedFileCache.read(fileHash, offset, Math.min(length, MAX_DOWNLOAD_CHUNK));
+            logger.debug(() -> "Served " + data.length + " bytes of file " + fileHash + " at " + offset + " to " + signedInUser);
+            PayloadCodec codec = payloadCodecs.get(signedInUser);
+            return codec != null ? codec.pack(data) : data;
+        } catch (IOException e) {
+            logger.warn(() -> "File " + fileHash + " requested by " + signedInUser + " is not available: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void deleteChatRoom(String roomName) {
+        chatRooms.remove(roomName);
+        List<String> fileHashes = dbHelper.deleteRoom(roomName);
+        for (String fileHash : fileHashes) {
+            blobStore.release(fileHash);
+        }
+        logger.info(() -> "Chat room deleted: " + roomName + ", released " + fileHashes.size() + " file references");
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    public SharedFileCache getSharedFileCache() {
+        return sharedFileCache;
+    }
+
+}
@@ -0,0 +1,51 @@
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public interface ChatStore {
+    enum Backend {
+        MYSQL,
+        SEGMENT
+    }
+
+    boolean addUser(User user);
+
+    User getUser(String username);
+
+    boolean authenticateUser(String username, String password);
+
+    void saveMessage(Message message);
+
+    List<Message> getMessageHistory(String signedInUser);
+
+    int streamMessageHistory(String signedInUser, int fetchSize, Predicate<List<Message>> chunkConsumer);
+
+    List<Message> getConversationPage(String user, String partner, long beforeId, int limit);
+
+    List<Message> getRecentMessages(String user, long beforeId, int limit);
+
+    void saveRoom(ChatRoom room);
+
+    void saveRoomMessage(Message message, String roomName);
+
+    List<Message> getRoomMessagePage(String roomName, long beforeId, int limit);
+
+    void saveRoomMember(String username, String roomName);
+
+    boolean isUserInRoom(String username, String roomName);
+
+    ChatRoom[] getAllRooms();
+
+    List<String> deleteRoom(String roomName);
+
+    Map<Long, Message> getMessagesByIds(List<Long> ids, boolean roomMessages);
+
+    long scanStoredMessages(long maxMessageId, long maxRoomMessageId, Consumer<Message> consumer);
+
+    long getLastMessageId();
+
+    long getLastRoomMessageId();
+
+    void close();
+}
@@ -0,0 +1,200 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public final class ClientOutbox {
+    private static final long RETRY_PAUSE_MILLIS = 200;
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DISCONNECT
+    }
+
+    private final String username;
+    private final ClientCallback callback;
+    private final ArrayBlockingQueue<CallbackEvent> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Consumer<ClientOutbox> disconnectHandler;
+    private final int maxBatchSize;
+    private final long batchWindowNanos;
+    private final CallbackCircuitBreaker circuitBreaker;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicInteger highWatermark = new AtomicInteger();
+    private final Thread worker;
+    private final Logger logger = Logger.getInstance();
+    private volatile boolean closed;
+    private volatile PayloadCodec payloadCodec;
+
+    public ClientOutbox(String username, ClientCallback callback, int capacity, OverflowPolicy overflowPolicy,
+                        int maxBatchSize, long batchWindowMillis, CallbackCircuitBreaker circuitBreaker,
+                        Consumer<ClientOutbox> disconnectHandler) {
+        this.username = username;
+        this.callback = callback;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+        this.circuitBreaker = circuitBreaker;
+        this.disconnectHandler = disconnectHandler;
+        this.worker = Thread.ofVirtual().name("outbox-" + username).start(this::drain);
+    }
+
+    public boolean enqueue(CallbackEvent event) {
+        if (closed) {
+            return false;
+        }
+        while (!queue.offer(event)) {
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                logger.warn(() -> "Outbox full for " + username + ", disconnecting slow consumer");
+                disconnect();
+                return false;
+            }
+            if (queue.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+        enqueued.incrementAndGet();
+        highWatermark.accumulateAndGet(queue.size(), Math::max);
+        return true;
+    }
+
+    private void drain() {
+        List<CallbackEvent> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed) {
+                if (batch.isEmpty()) {
+                    collectBatch(batch);
+                    PayloadCodec codec = payloadCodec;
+                    if (codec != null && codec.isEnabled()) {
+                        batch.replaceAll(event -> event.compressedFor(codec));
+                    }
+                }
+                if (!circuitBreaker.allowDelivery()) {
+                    Thread.sleep(RETRY_PAUSE_MILLIS);
+                    continue;
+                }
+                try {
+                    if (batch.size() == 1) {
+                        batch.getFirst().deliverTo(callback);
+                    } else {
+                        callback.onEventsReceived(new ArrayList<>(batch));
+                        batchesSent.incrementAndGet();
+                    }
+                    delivered.addAndGet(batch.size());
+                    circuitBreaker.recordSuccess();
+                    batch.clear();
+                } catch (RemoteException e) {
+                    deferred.addAndGet(batch.size());
+                    logger.error(() -> "Delivery of " + batch.size() + " events to " + username + " failed, will retry: "
+                            + e.getMessage());
+                    if (circuitBreaker.recordFailure() == CallbackCircuitBreaker.State.OPEN) {
+                        logger.warn(() -> "Circuit opened for " + username + ", holding " + (batch.size() + queue.size())
+                                + " events until the client answers again");
+                    }
+                    Thread.sleep(RETRY_PAUSE_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dropped.addAndGet(batch.size());
+        }
+    }
+
+    private void collectBatch(List<CallbackEvent> batch) throws InterruptedException {
+        batch.add(queue.take());
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        long deadline = System.nanoTime() + batchWindowNanos;
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            CallbackEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    public void disconnect() {
+        if (!closed) {
+            close();
+            disconnectHandler.accept(this);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        dropped.addAndGet(queue.size());
+        queue.clear();
+        worker.interrupt();
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public ClientCallback getCallback() {
+        return callback;
+    }
+
+    public void setPayloadCodec(PayloadCodec payloadCodec) {
+        this.payloadCodec = payloadCodec;
+    }
+
+    public PayloadCodec getPayloadCodec() {
+        return payloadCodec;
+    }
+
+    public CallbackCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public boolean isReachable() {
+        return !closed && circuitBreaker.allowDelivery();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getHighWatermark() {
+        return highWatermark.get();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getDeferredCount() {
+        return deferred.get();
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+}
@@ -0,0 +1,210 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class ConnectionPool implements AutoCloseable {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize = ServerConfig.getInt("CHAT_DB_STATEMENT_CACHE_SIZE", 64);
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final ScheduledExecutorService leakDetector;
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final Logger logger = Logger.getInstance();
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password,
+                ServerConfig.getInt("CHAT_DB_POOL_SIZE", 10),
+                ServerConfig.getLong("CHAT_DB_POOL_TIMEOUT_MS", 5000),
+                ServerConfig.getLong("CHAT_DB_POOL_VALIDATION_MS", 30000),
+                ServerConfig.getLong("CHAT_DB_POOL_LEAK_THRESHOLD_MS", 60000));
+    }
+
+    public ConnectionPool(String url, String user, String password, int maxSize, long borrowTimeoutMillis,
+                          long validationIntervalMillis, long leakThresholdMillis) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.permits = new Semaphore(this.maxSize, true);
+        this.leakDetector = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("connection-leak-detector").daemon().factory());
+        long checkInterval = Math.max(1000, leakThresholdMillis / 2);
+        leakDetector.scheduleWithFixedDelay(this::detectLeaks, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        logger.info(() -> "Connection pool created with " + this.maxSize + " connections to " + url);
+    }
+
+    public PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(this, DriverManager.getConnection(url, user, password), statementCacheSize);
+                createdCount.incrementAndGet();
+            }
+            long waited = System.nanoTime() - start;
+            borrowCount.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            pooled.markBorrowed(Thread.currentThread().getName());
+            borrowed.add(pooled);
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isUsable(pooled)) {
+                return pooled;
+            }
+            discard(pooled);
+        }
+        return null;
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (pooled.getIdleMillis() < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pooled.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void release(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            return;
+        }
+        try {
+            Connection connection = pooled.getConnection();
+            if (closed || connection.isClosed()) {
+                discard(pooled);
+            } else {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                pooled.markReturned();
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            logger.warn(() -> "Discarding broken database connection: " + e.getMessage());
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        discardedCount.incrementAndGet();
+        pooled.closePhysical();
+    }
+
+    private void detectLeaks() {
+        for (PooledConnection pooled : borrowed) {
+            if (pooled.getBorrowedMillis() > leakThresholdMillis && pooled.markLeakReported()) {
+                leakCount.incrementAndGet();
+                logger.warn(() -> "Possible connection leak: borrowed by " + pooled.getBorrower() + " for "
+                        + pooled.getBorrowedMillis() + " ms");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        leakDetector.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closePhysical();
+        }
+        logger.info(() -> "Connection pool closed: " + borrowCount.get() + " borrows, average wait "
+                + String.format("%.2f", getAverageWaitMillis()) + " ms, " + timeoutCount.get() + " timeouts");
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / (count * 1_000_000.0);
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDiscardedCount() {
+        return discardedCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+}
@@ -1,99 +1,223 @@
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-public class DbContext {
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public class DbContext implements ChatStore {
     private static DbContext instance;
-    private Connection connection;
+    private ConnectionPool pool;
+    private MessageWriteBehind writeBehind;
+    private MessageArchive archive;
+    private MessageArchiver archiver;
+    private final ConcurrentHashMap<String, Long> roomIds = new ConcurrentHashMap<>();
+    private final AtomicLong lastMessageId = new AtomicLong();
+    private final AtomicLong lastRoomMessageId = new AtomicLong();
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int SCHEMA_VERSION = 3;
+    private static final int SCAN_FETCH_SIZE = 1000;
     private final Logger logger = Logger.getInstance();
 
     private DbContext(String dbName, String user, String password) {
+        BootTimer bootTimer = new BootTimer("Database");
         try {
             String baseUrl = System.getenv("DB_URL") != null ? System.getenv("DB_URL") : "jdbc:mysql://localhost:3306/";
 
             Class.forName("com.mysql.cj.jdbc.Driver");
-            connection = DriverManager.getConnection(baseUrl, user, password);
-
-            try (Statement stmt = connection.createStatement()) {
-                stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + dbName);
-            }
-
-            connection = DriverManager.getConnection(baseUrl + dbName, user, password);
-
-            try (Statement stmt = connection.createStatement()) {
-                stmt.executeUpdate("""
-                            CREATE TABLE IF NOT EXISTS users (
-                                username varchar(50) NOT NULL,
-                                password varchar(255) NOT NULL,
-                                firstName varchar(50) NOT NULL,
-                                lastName varchar(50) NOT NULL,
-                                PRIMARY KEY (username)
-                            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
-                        """);
-
-                stmt.executeUpdate("""
-                            CREATE TABLE IF NOT EXISTS chat_rooms (
-                                room_id bigint NOT NULL AUTO_INCREMENT,
-                                room_name varchar(100) NOT NULL,
-                                created_at timestamp NULL DEFAULT CURRENT_TIMESTAMP,
-                                PRIMARY KEY (room_id),
-                                UNIQUE KEY room_name (room_name)
-                            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
-                        """);
-
-                stmt.executeUpdate("""
-                            CREATE TABLE IF NOT EXISTS messages (
-                                id bigint NOT NULL AUTO_INCREMENT,
-                                sender varchar(50) NOT NULL,
-                                recipient varchar(50) NOT NULL,
-                                content text NOT NULL,
-                                timestamp bigint NOT NULL,
-                                PRIMARY KEY (id),
-                                KEY sender (sender),
-                                KEY recipient (recipient),
-                                FOREIGN KEY (sender) REFERENCES users (username),
-                                FOREIGN KEY (recipient) REFERENCES users (username)
-                            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
-                        """);
-
-                stmt.executeUpdate("""
-                            CREATE TABLE IF NOT EXISTS room_members (
-                                room_id bigint NOT NULL,
-                                username varchar(50) NOT NULL,
-                                joined_at timestamp NULL DEFAULT CURRENT_TIMESTAMP,
-                                PRIMARY KEY (room_id,username),
-                                KEY username (username),
-                                FOREIGN KEY (room_id) REFERENCES chat_rooms (room_id),
-                                FOREIGN KEY (username) REFERENCES users (username)
-                            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
-                        """);
-
-                stmt.executeUpdate("""
-                            CREATE TABLE IF NOT EXISTS room_messages (
-                                id bigint NOT NULL AUTO_INCREMENT,
-                                room_id bigint NOT NULL,
-                                sender varchar(50) NOT NULL,
-                                content text NOT NULL,
-                                timestamp bigint NOT NULL,
-                                PRIMARY KEY (id),
-                                KEY room_id (room_id),
-                                KEY sender (sender),
-                                FOREIGN KEY (room_id) REFERENCES chat_rooms (room_id),
-                                FOREIGN KEY (sender) REFERENCES users (username)
-                            ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
-                        """);
-                logger.info("Database and tables created/verified successfully");
-            }
-
-            logger.info("Database connection established successfully to: " + dbName);
+            pool = new ConnectionPool(baseUrl + dbName, user, password);
+            writeBehind = new MessageWriteBehind(pool);
+            bootTimer.phase("pool");
+
+            int storedVersion = readSchemaVersion();
+            if (storedVersion == SCHEMA_VERSION) {
+                logger.info(() -> "Schema version " + SCHEMA_VERSION + " is current, skipping DDL");
+            } else {
+                logger.info(() -> "Schema version " + storedVersion + " found, migrating to " + SCHEMA_VERSION);
+                createSchema(baseUrl, dbName, user, password);
+            }
+            bootTimer.phase("schema");
+
+            try (PooledConnection pooled = pool.borrow();
+                 Statement stmt = pooled.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM messages")) {
+                    if (rs.next()) {
+                        lastMessageId.set(rs.getLong(1));
+                    }
+                }
+                try (ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM room_messages")) {
+                    if (rs.next()) {
+                        lastRoomMessageId.set(rs.getLong(1));
+                    }
+                }
+            }
+            bootTimer.phase("sequences");
+
+            archive = new MessageArchive(Paths.get(ServerConfig.getString("CHAT_ARCHIVE_DIR", "./chat-archive")));
+            lastMessageId.accumulateAndGet(archive.getArchivedThrough(false), Math::max);
+            lastRoomMessageId.accumulateAndGet(archive.getArchivedThrough(true), Math::max);
+            long archiveAfterDays = ServerConfig.getLong("CHAT_ARCHIVE_AFTER_DAYS", 0);
+            if (archiveAfterDays > 0) {
+                archiver = new MessageArchiver(pool, archive, TimeUnit.DAYS.toMillis(archiveAfterDays));
+            }
+            bootTimer.phase("archive");
+
+            logger.info(() -> "Database connection established successfully to: " + dbName);
+            bootTimer.report();
         } catch (SQLException e) {
-            logger.error("Database connection failed: " + e.getMessage());
-            logger.error("Stack trace: " + e.getMessage());
+            logger.error(() -> "Database connection failed: " + e.getMessage());
+            logger.error(() -> "Stack trace: " + e.getMessage());
         } catch (ClassNotFoundException e) {
-            logger.error("JDBC Driver not found: " + e.getMessage());
+            logger.error(() -> "JDBC Driver not found: " + e.getMessage());
+        }
+    }
+
+    private int readSchemaVersion() {
+        try (PooledConnection pooled = pool.borrow();
+             Statement stmt = pooled.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+
+    private void createSchema(String baseUrl, String dbName, String user, String password) throws SQLException {
+        try (Connection bootstrap = DriverManager.getConnection(baseUrl, user, password);
+             Statement stmt = bootstrap.createStatement()) {
+            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + dbName);
+        }
+
+        try (PooledConnection pooled = pool.borrow();
+             Statement stmt = pooled.createStatement()) {
+            stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS users (
+                            username varchar(50) NOT NULL,
+                            password varchar(255) NOT NULL,
+                            firstName varchar(50) NOT NULL,
+                            lastName varchar(50) NOT NULL,
+                            PRIMARY KEY (username)
+                        ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+                    """);
+
+            stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS chat_rooms (
+                            room_id bigint NOT NULL AUTO_INCREMENT,
+                            room_name varchar(100) NOT NULL,
+                            created_at timestamp NULL DEFAULT CURRENT_TIMESTAMP,
+                            PRIMARY KEY (room_id),
+                            UNIQUE KEY room_name (room_name)
+                        ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+                    """);
+
+            stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS messages (
+                            id bigint NOT NULL AUTO_INCREMENT,
+                            sender varchar(50) NOT NULL,
+                            recipient varchar(50) NOT NULL,
+                            content text NOT NULL,
+                            timestamp bigint NOT NULL,
+                            file_hash char(64) DEFAULT NULL,
+                            file_size bigint DEFAULT NULL,
+                            PRIMARY KEY (id),
+                            KEY sender (sender),
+                            KEY recipient (recipient),
+                            KEY sender_recipient_id (sender, recipient, id),
+                            KEY recipient_sender_id (recipient, sender, id),
+                            FOREIGN KEY (sender) REFERENCES users (username),
+                            FOREIGN KEY (recipient) REFERENCES users (username)
+                        ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+                    """);
+
+            stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS room_members (
+                            room_id bigint NOT NULL,
+                            username varchar(50) NOT NULL,
+                            joined_at timestamp NULL DEFAULT CURRENT_TIMESTAMP,
+                            PRIMARY KEY (room_id,username),
+                            KEY username (username),
+                            FOREIGN KEY (room_id) REFERENCES chat_rooms (room_id),
+                            FOREIGN KEY (username) REFERENCES users (username)
+                        ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+                    """);
+
+            stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS room_messages (
+                            id bigint NOT NULL AUTO_INCREMENT,
+                            room_id bigint NOT NULL,
+                            sender varchar(50) NOT NULL,
+                            content text NOT NULL,
+                            timestamp bigint NOT NULL,
+                            file_hash char(64) DEFAULT NULL,
+                            file_size bigint DEFAULT NULL,
+                            PRIMARY KEY (id),
+                            KEY room_id (room_id),
+                            KEY room_id_id (room_id, id),
+                            KEY sender (sender),
+                            FOREIGN KEY (room_id) REFERENCES chat_rooms (room_id),
+                            FOREIGN KEY (sender) REFERENCES users (username)
+                        ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+                    """);
+            ensureIndex(pooled, "messages", "sender_recipient_id", "(sender, recipient, id)");
+            ensureIndex(pooled, "messages", "recipient_sender_id", "(recipient, sender, id)");
+            ensureIndex(pooled, "room_messages", "room_id_id", "(room_id, id)");
+            ensureColumn(pooled, "messages", "file_hash", "char(64) DEFAULT NULL");
+            ensureColumn(pooled, "messages", "file_size", "bigint DEFAULT NULL");
+            ensureColumn(pooled, "room_messages", "file_hash", "char(64) DEFAULT NULL");
+            ensureColumn(pooled, "room_messages", "file_size", "bigint DEFAULT NULL");
+
+            stmt.executeUpdate("""
+                        CREATE TABLE IF NOT EXISTS schema_version (
+                            version int NOT NULL,
+                            applied_at timestamp NULL DEFAULT CURRENT_TIMESTAMP,
+                            PRIMARY KEY (version)
+                        ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+                    """);
+            stmt.executeUpdate("INSERT IGNORE INTO schema_version (version) VALUES (" + SCHEMA_VERSION + ")");
+            logger.info("Database and tables created/verified successfully");
+        }
+    }
+
+    private void ensureIndex(PooledConnection pooled, String table, String indexName, String columns) throws SQLException {
+        PreparedStatement pstmt = pooled.prepareStatement("""
+                SELECT 1 FROM information_schema.statistics
+                WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?""");
+        pstmt.setString(1, table);
+        pstmt.setString(2, indexName);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        try (Statement stmt = pooled.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + table + " ADD INDEX " + indexName + " " + columns);
+            logger.info(() -> "Created index " + indexName + " on " + table);
         }
     }
 
+    private void ensureColumn(PooledConnection pooled, String table, String column, String definition) throws SQLException {
+        PreparedStatement pstmt = pooled.prepareStatement("""
+                SELECT 1 FROM information_schema.columns
+                WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?""");
+        pstmt.setString(1, table);
+        pstmt.setString(2, column);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        try (Statement stmt = pooled.createStatement()) {
+            stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            logger.info(() -> "Added column " + column + " to " + table);
+        }
+    }
 
     public static DbContext getInstance(String dbName, String user, String password) {
         DbContext result = instance;
@@ -108,234 +232,624 @@ public class DbContext {
         return result;
     }
 
+    @Override
     public boolean addUser(User user) {
         String sql = "INSERT INTO users (username, password, firstName, lastName) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(sql);
             pstmt.setString(1, user.getUsername());
             pstmt.setString(2, user.getPassword());
             pstmt.setString(3, user.getFirstName());
             pstmt.setString(4, user.getLastName());
             pstmt.executeUpdate();
-            logger.info("New user registered successfully: " + user.getUsername());
+            logger.info(() -> "New user registered successfully: " + user.getUsername());
             return true;
         } catch (SQLException e) {
-            logger.error("Failed to add user " + user.getUsername() + ": " + e.getMessage());
+            logger.error(() -> "Failed to add user " + user.getUsername() + ": " + e.getMessage());
             return false;
         }
     }
 
+    @Override
     public User getUser(String username) {
         String sql = "SELECT " + "* FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(sql);
             pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                User user = UserFactory.createUser(
-                        "regular",
-                        rs.getString("username"),
-                        rs.getString("password"),
-                        rs.getString("firstName"),
-                        rs.getString("lastName")
-                );
-                logger.info("User retrieved from database: " + username);
-                return user;
-            }
-            logger.warn("User not found in database: " + username);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    User user = UserFactory.createUser(
+                            "regular",
+                            rs.getString("username"),
+                            rs.getString("password"),
+                            rs.getString("firstName"),
+                            rs.getString("lastName")
+                    );
+                    logger.debug(() -> "User retrieved from database: " + username);
+                    return user;
+                }
+            }
+            logger.warn(() -> "User not found in database: " + username);
         } catch (SQLException e) {
-            logger.error("Error retrieving user " + username + ": " + e.getMessage());
+            logger.error(() -> "Error retrieving user " + username + ": " + e.getMessage());
         }
         return null;
     }
 
+    @Override
     public void saveMessage(Message message) {
-        String sql = "INSERT INTO messages (sender, recipient, content, timestamp) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, message.getSender());
-            pstmt.setString(2, message.getRecipient());
-            pstmt.setString(3, message.getContent());
-            pstmt.setLong(4, message.getTimestamp());
-            pstmt.executeUpdate();
-            logger.info("Message saved: From " + message.getSender() + " to " + message.getRecipient());
-        } catch (SQLException e) {
-            logger.error("Failed to save message: " + e.getMessage());
-        }
+        message.setId(lastMessageId.incrementAndGet());
+        writeBehind.saveMessage(message);
     }
 
+    @Override
     public List<Message> getMessageHistory(String signedInUser) {
         List<Message> messages = new ArrayList<>();
         String sql = """
-                SELECT sender, recipient, content, timestamp FROM messages\s
+                SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages\s
                 WHERE sender = ? OR recipient = ?
                 ORDER BY timestamp""";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        archive.forEachUserMessage(signedInUser, messages::add);
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(sql);
             pstmt.setString(1, signedInUser);
             pstmt.setString(2, signedInUser);
 
-            ResultSet rs = pstmt.executeQuery();
-            int messageCount = 0;
-            while (rs.next()) {
-                Message message = new Message(
-                        rs.getString("sender"),
-                        rs.getString("recipient"),
-                        rs.getString("content"),
-                        rs.getLong("timestamp")
-                );
-                messages.add(message);
-                messageCount++;
-            }
-            logger.info("Retrieved " + messageCount + " messages for user " + signedInUser);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Message message = readMessage(rs, null, false);
+                    messages.add(message);
+                }
+            }
+            logger.info(() -> "Retrieved " + messages.size() + " messages for user " + signedInUser);
         } catch (SQLException e) {
-            logger.error("Failed to retrieve message history: " + e.getMessage());
+            logger.error(() -> "Failed to retrieve message history: " + e.getMessage());
         }
         return messages;
     }
 
+    @Override
+    public int streamMessageHistory(String signedInUser, int fetchSize, Predicate<List<Message>> chunkConsumer) {
+        String sql = """
+                (SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+                 WHERE sender = ? AND id > ? ORDER BY id LIMIT ?)
+                UNION
+                (SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+                 WHERE recipient = ? AND id > ? ORDER BY id LIMIT ?)
+                ORDER BY id LIMIT ?""";
+        ChunkEmitter emitter = new ChunkEmitter(fetchSize, chunkConsumer);
+        if (!archive.forEachUserMessage(signedInUser, emitter::add)) {
+            logger.warn(() -> "History stream for " + signedInUser + " aborted after " + emitter.total + " messages");
+            return emitter.total;
+        }
+        long lastId = 0;
+        while (true) {
+            List<Message> page = new ArrayList<>(fetchSize);
+            try (PooledConnection pooled = pool.borrow()) {
+                PreparedStatement pstmt = pooled.prepareStatement(sql);
+                pstmt.setString(1, signedInUser);
+                pstmt.setLong(2, lastId);
+                pstmt.setInt(3, fetchSize);
+                pstmt.setString(4, signedInUser);
+                pstmt.setLong(5, lastId);
+                pstmt.setInt(6, fetchSize);
+                pstmt.setInt(7, fetchSize);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        page.add(readMessage(rs, null, false));
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error(() -> "Failed to stream message history: " + e.getMessage());
+                return emitter.total;
+            }
+            for (Message message : page) {
+                if (!emitter.add(message)) {
+                    logger.warn(() -> "History stream for " + signedInUser + " aborted after " + emitter.total + " messages");
+                    return emitter.total;
+                }
+            }
+            if (page.size() < fetchSize) {
+                break;
+            }
+            lastId = page.getLast().getId();
+        }
+        emitter.finish();
+        logger.info(() -> "Streamed " + emitter.total + " messages for user " + signedInUser);
+        return emitter.total;
+    }
+
+    private static final class ChunkEmitter {
+        private final int chunkSize;
+        private final Predicate<List<Message>> consumer;
+        private List<Message> chunk;
+        private int total;
+
+        private ChunkEmitter(int chunkSize, Predicate<List<Message>> consumer) {
+            this.chunkSize = chunkSize;
+            this.consumer = consumer;
+            this.chunk = new ArrayList<>(chunkSize);
+        }
+
+        boolean add(Message message) {
+            chunk.add(message);
+            if (chunk.size() < chunkSize) {
+                return true;
+            }
+            total += chunk.size();
+            boolean proceed = consumer.test(chunk);
+            chunk = new ArrayList<>(chunkSize);
+            return proceed;
+        }
+
+        void finish() {
+            total += chunk.size();
+            consumer.test(chunk);
+        }
+    }
+
+    @Override
+    public List<Message> getConversationPage(String user, String partner, long beforeId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        long cursor = beforeId > 0 ? beforeId : Long.MAX_VALUE;
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        String sql = """
+                (SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+                 WHERE sender = ? AND recipient = ? AND id < ? ORDER BY id DESC LIMIT ?)
+                UNION
+                (SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+                 WHERE recipient = ? AND sender = ? AND id < ? ORDER BY id DESC LIMIT ?)
+                ORDER BY id DESC LIMIT ?""";
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(sql);
+            pstmt.setString(1, user);
+            pstmt.setString(2, partner);
+            pstmt.setLong(3, cursor);
+            pstmt.setInt(4, pageSize);
+            pstmt.setString(5, user);
+            pstmt.setString(6, partner);
+            pstmt.setLong(7, cursor);
+            pstmt.setInt(8, pageSize);
+            pstmt.setInt(9, pageSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Message message = readMessage(rs, null, false);
+                    messages.add(message);
+                }
+            }
+            Collections.reverse(messages);
+            if (messages.size() < pageSize) {
+                long archiveCursor = messages.isEmpty() ? cursor : messages.getFirst().getId();
+                messages.addAll(0, archive.getConversationPage(user, partner, archiveCursor, pageSize - messages.size()));
+            }
+            logger.info(() -> "Retrieved page of " + messages.size() + " messages between " + user + " and " + partner);
+        } catch (SQLException e) {
+            logger.error(() -> "Failed to retrieve conversation page: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> getRecentMessages(String user, long beforeId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        long cursor = beforeId > 0 ? beforeId : Long.MAX_VALUE;
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        String sql = """
+                (SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+                 WHERE sender = ? AND id < ? ORDER BY id DESC LIMIT ?)
+                UNION
+                (SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+                 WHERE recipient = ? AND id < ? ORDER BY id DESC LIMIT ?)
+                ORDER BY id DESC LIMIT ?""";
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(sql);
+            pstmt.setString(1, user);
+            pstmt.setLong(2, cursor);
+            pstmt.setInt(3, pageSize);
+            pstmt.setString(4, user);
+            pstmt.setLong(5, cursor);
+            pstmt.setInt(6, pageSize);
+            pstmt.setInt(7, pageSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs, null, false));
+                }
+            }
+            Collections.reverse(messages);
+            if (messages.size() < pageSize) {
+                long archiveCursor = messages.isEmpty() ? cursor : messages.getFirst().getId();
+                messages.addAll(0, archive.getUserPage(user, archiveCursor, pageSize - messages.size()));
+            }
+            logger.info(() -> "Retrieved page of " + messages.size() + " recent messages for " + user);
+        } catch (SQLException e) {
+            logger.error(() -> "Failed to retrieve recent messages: " + e.getMessage());
+        }
+        return messages;
+    }
+
+    @Override
     public boolean authenticateUser(String username, String password) {
         String sql = "SELECT password FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(sql);
             pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                boolean authenticated = rs.getString("password").equals(password);
-                if (authenticated) {
-                    logger.info("User authenticated successfully: " + username);
-                } else {
-                    logger.warn("Failed authentication attempt for user: " + username);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    boolean authenticated = rs.getString("password").equals(password);
+                    if (authenticated) {
+                        logger.info(() -> "User authenticated successfully: " + username);
+                    } else {
+                        logger.warn(() -> "Failed authentication attempt for user: " + username);
+                    }
+                    return authenticated;
                 }
-                return authenticated;
             }
-            logger.warn("Authentication attempt for non-existent user: " + username);
+            logger.warn(() -> "Authentication attempt for non-existent user: " + username);
         } catch (SQLException e) {
-            logger.error("Authentication error for user " + username + ": " + e.getMessage());
+            logger.error(() -> "Authentication error for user " + username + ": " + e.getMessage());
         }
         return false;
     }
 
 
+    @Override
     public void saveRoom(ChatRoom room) {
         String sql = "INSERT INTO chat_rooms (room_name) VALUES (?) ON DUPLICATE KEY UPDATE room_name = room_name";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             pstmt.setString(1, room.getName());
             pstmt.executeUpdate();
 
-            ResultSet rs = pstmt.getGeneratedKeys();
-            if (rs.next()) {
-                long roomId = rs.getLong(1);
-                logger.info("Chat room saved to database with ID " + roomId + ": " + room.getName());
+            long roomId = 0;
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                if (rs.next()) {
+                    roomId = rs.getLong(1);
+                }
+            }
+            if (roomId > 0) {
+                roomIds.put(room.getName(), roomId);
+            } else {
+                roomId = resolveRoomId(pooled, room.getName());
             }
+            long savedId = roomId;
+            logger.info(() -> "Chat room saved to database with ID " + savedId + ": " + room.getName());
         } catch (SQLException e) {
-            logger.error("Failed to save chat room: " + e.getMessage());
+            logger.error(() -> "Failed to save chat room: " + e.getMessage());
         }
     }
 
 
+    @Override
     public void saveRoomMessage(Message message, String roomName) {
-        String getRoomIdSql = "SELECT room_id FROM chat_rooms WHERE room_name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(getRoomIdSql)) {
-            pstmt.setString(1, roomName);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                long roomId = rs.getLong("room_id");
-                String sql = "INSERT INTO room_messages (sender, room_id, content, timestamp) VALUES (?, ?, ?, ?)";
-                try (PreparedStatement msgStmt = connection.prepareStatement(sql)) {
-                    msgStmt.setString(1, message.getSender());
-                    msgStmt.setLong(2, roomId);
-                    msgStmt.setString(3, message.getContent());
-                    msgStmt.setLong(4, message.getTimestamp());
-                    msgStmt.executeUpdate();
-                    logger.info("Room message saved: From " + message.getSender() + " in room " + roomName);
+        Long roomId = roomIds.get(roomName);
+        if (roomId == null) {
+            try (PooledConnection pooled = pool.borrow()) {
+                roomId = resolveRoomId(pooled, roomName);
+            } catch (SQLException e) {
+                logger.error(() -> "Failed to resolve room " + roomName + ": " + e.getMessage());
+                return;
+            }
+        }
+        if (roomId > 0) {
+            message.setId(lastRoomMessageId.incrementAndGet());
+            writeBehind.saveRoomMessage(message, roomId);
+        } else {
+            logger.warn(() -> "Room message not saved, unknown room: " + roomName);
+        }
+    }
+
+    @Override
+    public List<Message> getRoomMessagePage(String roomName, long beforeId, int limit) {
+        List<Message> messages = new ArrayList<>();
+        long cursor = beforeId > 0 ? beforeId : Long.MAX_VALUE;
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        try (PooledConnection pooled = pool.borrow()) {
+            long roomId = resolveRoomId(pooled, roomName);
+            if (roomId == 0) {
+                return messages;
+            }
+            PreparedStatement pstmt = pooled.prepareStatement("""
+                    SELECT id, sender, content, timestamp, file_hash, file_size FROM room_messages
+                    WHERE room_id = ? AND id < ? ORDER BY id DESC LIMIT ?""");
+            pstmt.setLong(1, roomId);
+            pstmt.setLong(2, cursor);
+            pstmt.setInt(3, pageSize);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Message message = readMessage(rs, roomName, true);
+                    messages.add(message);
                 }
             }
+            Collections.reverse(messages);
+            if (messages.size() < pageSize) {
+                long archiveCursor = messages.isEmpty() ? cursor : messages.getFirst().getId();
+                messages.addAll(0, archive.getRoomPage(roomName, archiveCursor, pageSize - messages.size()));
+            }
+            logger.info(() -> "Retrieved page of " + messages.size() + " messages for room " + roomName);
         } catch (SQLException e) {
-            logger.error("Failed to save room message: " + e.getMessage());
+            logger.error(() -> "Failed to retrieve room history: " + e.getMessage());
         }
+        return messages;
     }
 
-    public void saveRoomMember(String username, String roomName) {
-        String getRoomIdSql = "SELECT room_id FROM chat_rooms WHERE room_name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(getRoomIdSql)) {
-            pstmt.setString(1, roomName);
-            ResultSet rs = pstmt.executeQuery();
+    private long resolveRoomId(PooledConnection pooled, String roomName) throws SQLException {
+        Long cached = roomIds.get(roomName);
+        if (cached != null) {
+            return cached;
+        }
+        PreparedStatement pstmt = pooled.prepareStatement("SELECT room_id FROM chat_rooms WHERE room_name = ?");
+        pstmt.setString(1, roomName);
+        try (ResultSet rs = pstmt.executeQuery()) {
             if (rs.next()) {
                 long roomId = rs.getLong("room_id");
-                String sql = "INSERT INTO room_members (room_id, username) VALUES (?, ?)";
-                try (PreparedStatement memberStmt = connection.prepareStatement(sql)) {
-                    memberStmt.setLong(1, roomId);
-                    memberStmt.setString(2, username);
-                    memberStmt.executeUpdate();
-                    logger.info("Room member saved: User " + username + " in room " + roomName);
-                }
+                roomIds.put(roomName, roomId);
+                return roomId;
             }
-        } catch (SQLException e) {
-            logger.error("Failed to save room member: " + e.getMessage());
         }
+        return 0;
     }
 
-    public ChatRoom[] getAllRooms() {
-        List<ChatRoom> rooms = new ArrayList<>();
-        try (PreparedStatement pstmt = connection.prepareStatement("SELECT room_name FROM chat_rooms")) {
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                ChatRoom room = new ChatRoom(rs.getString("room_name"));
-                rooms.add(room);
-                logger.info("Retrieved chat room from database: " + room.getName());
+    @Override
+    public Map<Long, Message> getMessagesByIds(List<Long> ids, boolean roomMessages) {
+        Map<Long, Message> found = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (long id : ids) {
+            Message pending = writeBehind.findPending(id, roomMessages);
+            if (pending != null) {
+                Message copy = new Message(pending.getSender(), pending.getRecipient(), pending.getContent(), pending.getTimestamp());
+                copy.setId(id);
+                copy.setRoomMessage(roomMessages);
+                copy.setFileHash(pending.getFileHash());
+                copy.setFileSize(pending.getFileSize());
+                found.put(id, copy);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(missing.size(), "?"));
+        String sql = roomMessages
+                ? "SELECT rm.id, rm.sender, cr.room_name AS recipient, rm.content, rm.timestamp, rm.file_hash, rm.file_size FROM room_messages rm"
+                + " JOIN chat_rooms cr ON cr.room_id = rm.room_id WHERE rm.id IN (" + placeholders + ")"
+                : "SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages WHERE id IN (" + placeholders + ")";
+        try (PooledConnection pooled = pool.borrow();
+             PreparedStatement pstmt = pooled.getConnection().prepareStatement(sql)) {
+            for (int i = 0; i < missing.size(); i++) {
+                pstmt.setLong(i + 1, missing.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Message message = readMessage(rs, null, roomMessages);
+                    found.put(message.getId(), message);
+                }
             }
         } catch (SQLException e) {
-            logger.error("Failed to retrieve chat rooms: " + e.getMessage());
+            logger.error(() -> "Failed to load messages by id: " + e.getMessage());
         }
-        return rooms.toArray(new ChatRoom[0]);
+        for (long id : missing) {
+            if (!found.containsKey(id)) {
+                Message archived = archive.find(id, roomMessages);
+                if (archived != null) {
+                    found.put(id, archived);
+                }
+            }
+        }
+        return found;
     }
 
-    public void deleteRoom(String roomName) {
-        String getRoomIdSql = "SELECT room_id FROM chat_rooms WHERE room_name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(getRoomIdSql)) {
-            pstmt.setString(1, roomName);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                long roomId = rs.getLong("room_id");
+    @Override
+    public long scanStoredMessages(long maxMessageId, long maxRoomMessageId, Consumer<Message> consumer) {
+        long[] archived = new long[1];
+        archive.forEachMessage(false, maxMessageId, message -> {
+            consumer.accept(message);
+            archived[0]++;
+            return true;
+        });
+        archive.forEachMessage(true, maxRoomMessageId, message -> {
+            consumer.accept(message);
+            archived[0]++;
+            return true;
+        });
+        long total = archived[0];
+        try (PooledConnection pooled = pool.borrow()) {
+            total += scan(pooled, """
+                    SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+                    WHERE id <= ? ORDER BY id""", maxMessageId, false, consumer);
+            total += scan(pooled, """
+                    SELECT rm.id, rm.sender, cr.room_name AS recipient, rm.content, rm.timestamp, rm.file_hash, rm.file_size FROM room_messages rm
+                    JOIN chat_rooms cr ON cr.room_id = rm.room_id
+                    WHERE rm.id <= ? ORDER BY rm.id""", maxRoomMessageId, true, consumer);
+        } catch (SQLException e) {
+            logger.error(() -> "Failed to scan stored messages: " + e.getMessage());
+        }
+        return total;
+    }
 
-                String deleteMembers = "DELETE FROM room_members WHERE room_id = ?";
-                try (PreparedStatement memberStmt = connection.prepareStatement(deleteMembers)) {
-                    memberStmt.setLong(1, roomId);
-                    memberStmt.executeUpdate();
+    private long scan(PooledConnection pooled, String sql, long maxId, boolean roomMessages, Consumer<Message> consumer) throws SQLException {
+        long count = 0;
+        try (PreparedStatement pstmt = pooled.getConnection().prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(SCAN_FETCH_SIZE);
+            pstmt.setLong(1, maxId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Message message = readMessage(rs, null, roomMessages);
+                    consumer.accept(message);
+                    count++;
                 }
+            }
+        }
+        return count;
+    }
 
-                String deleteMessages = "DELETE FROM room_messages WHERE room_id = ?";
-                try (PreparedStatement messageStmt = connection.prepareStatement(deleteMessages)) {
-                    messageStmt.setLong(1, roomId);
-                    messageStmt.executeUpdate();
+    private static Message readMessage(ResultSet rs, String recipient, boolean roomMessage) throws SQLException {
+        Message message = new Message(
+                rs.getString("sender"),
+                recipient != null ? recipient : rs.getString("recipient"),
+                rs.getString("content"),
+                rs.getLong("timestamp")
+        );
+        message.setId(rs.getLong("id"));
+        message.setRoomMessage(roomMessage);
+        String fileHash = rs.getString("file_hash");
+        if (fileHash != null) {
+            message.setFileHash(fileHash);
+            message.setFileSize(rs.getLong("file_size"));
+        }
+        return message;
+    }
+
+    @Override
+    public long getLastMessageId() {
+        return lastMessageId.get();
+    }
+
+    @Override
+    public long getLastRoomMessageId() {
+        return lastRoomMessageId.get();
+    }
+
+    public MessageWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    @Override
+    public void close() {
+        if (archiver != null) {
+            archiver.shutdown();
+        }
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Override
+    public void saveRoomMember(String username, String roomName) {
+        try (PooledConnection pooled = pool.borrow()) {
+            long roomId = resolveRoomId(pooled, roomName);
+            if (roomId > 0) {
+                PreparedStatement memberStmt = pooled.prepareStatement("INSERT IGNORE INTO room_members (room_id, username) VALUES (?, ?)");
+                memberStmt.setLong(1, roomId);
+                memberStmt.setString(2, username);
+                memberStmt.executeUpdate();
+                logger.info(() -> "Room member saved: User " + username + " in room " + roomName);
+            }
+        } catch (SQLException e) {
+            logger.error(() -> "Failed to save room member: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public ChatRoom[] getAllRooms() {
+        Map<Long, ChatRoom> rooms = new LinkedHashMap<>();
+        Map<Long, List<User>> members = new HashMap<>();
+        String sql = """
+                SELECT cr.room_id, cr.room_name, u.username, u.password, u.firstName, u.lastName
+                FROM chat_rooms cr
+                LEFT JOIN room_members rm ON rm.room_id = cr.room_id
+                LEFT JOIN users u ON u.username = rm.username
+                ORDER BY cr.room_id""";
+        int memberCount = 0;
+        try (PooledConnection pooled = pool.borrow();
+             PreparedStatement pstmt = pooled.getConnection().prepareStatement(sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(SCAN_FETCH_SIZE);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long roomId = rs.getLong("room_id");
+                    ChatRoom room = rooms.get(roomId);
+                    if (room == null) {
+                        room = new ChatRoom(rs.getString("room_name"));
+                        rooms.put(roomId, room);
+                        roomIds.put(room.getName(), roomId);
+                    }
+                    String username = rs.getString("username");
+                    if (username != null) {
+                        members.computeIfAbsent(roomId, k -> new ArrayList<>()).add(UserFactory.createUser(
+                                "regular",
+                                username,
+                                rs.getString("password"),
+                                rs.getString("firstName"),
+                                rs.getString("lastName")
+                        ));
+                        memberCount++;
+                    }
                 }
+            }
+            for (Map.Entry<Long, List<User>> entry : members.entrySet()) {
+                rooms.get(entry.getKey()).addMembers(entry.getValue());
+            }
+            int loadedMembers = memberCount;
+            logger.info(() -> "Loaded " + rooms.size() + " chat rooms with " + loadedMembers + " memberships from database");
+        } catch (SQLException e) {
+            logger.error(() -> "Failed to retrieve chat rooms: " + e.getMessage());
+        }
+        return rooms.values().toArray(new ChatRoom[0]);
+    }
 
-                String deleteRoom = "DELETE FROM chat_rooms WHERE room_id = ?";
-                try (PreparedStatement roomStmt = connection.prepareStatement(deleteRoom)) {
-                    roomStmt.setLong(1, roomId);
-                    roomStmt.executeUpdate();
+    @Override
+    public List<String> deleteRoom(String roomName) {
+        List<String> fileHashes = new ArrayList<>();
+        try (PooledConnection pooled = pool.borrow()) {
+            long roomId = resolveRoomId(pooled, roomName);
+            if (roomId > 0) {
+                PreparedStatement fileStmt = pooled.prepareStatement(
+                        "SELECT file_hash FROM room_messages WHERE room_id = ? AND file_hash IS NOT NULL");
+                fileStmt.setLong(1, roomId);
+                try (ResultSet rs = fileStmt.executeQuery()) {
+                    while (rs.next()) {
+                        fileHashes.add(rs.getString("file_hash"));
+                    }
                 }
 
-                logger.info("Chat room and related data deleted from database: " + roomName);
+                PreparedStatement memberStmt = pooled.prepareStatement("DELETE FROM room_members WHERE room_id = ?");
+                memberStmt.setLong(1, roomId);
+                memberStmt.executeUpdate();
+
+                PreparedStatement messageStmt = pooled.prepareStatement("DELETE FROM room_messages WHERE room_id = ?");
+                messageStmt.setLong(1, roomId);
+                messageStmt.executeUpdate();
+
+                PreparedStatement roomStmt = pooled.prepareStatement("DELETE FROM chat_rooms WHERE room_id = ?");
+                roomStmt.setLong(1, roomId);
+                roomStmt.executeUpdate();
+
+                roomIds.remove(roomName);
+                fileHashes.addAll(archive.deleteRoom(roomName));
+                logger.info(() -> "Chat room and related data deleted from database: " + roomName);
             }
         } catch (SQLException e) {
-            logger.error("Failed to delete chat room: " + e.getMessage());
+            logger.error(() -> "Failed to delete chat room: " + e.getMessage());
         }
+        return fileHashes;
     }
 
+    @Override
     public boolean isUserInRoom(String username, String roomName) {
-        String sql = """
-                     SELECT rm.username\s
-                     FROM room_members rm\s
-                     JOIN chat_rooms cr ON rm.room_id = cr.room_id\s
-                     WHERE rm.username = ? AND cr.room_name = ?
-                \s""";
-
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, username);
-            pstmt.setString(2, roomName);
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next();
+        try (PooledConnection pooled = pool.borrow()) {
+            long roomId = resolveRoomId(pooled, roomName);
+            if (roomId == 0) {
+                return false;
+            }
+            PreparedStatement pstmt = pooled.prepareStatement("SELECT 1 FROM room_members WHERE room_id = ? AND username = ?");
+            pstmt.setLong(1, roomId);
+            pstmt.setString(2, username);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
         } catch (SQLException e) {
-            logger.error("Failed to check room membership: " + e.getMessage());
+            logger.error(() -> "Failed to check room membership: " + e.getMessage());
             return false;
         }
     }
 
-}
\ No newline at end of file
+}
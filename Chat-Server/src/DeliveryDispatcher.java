@@ -0,0 +1,83 @@
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+public final class DeliveryDispatcher {
+    private final ConcurrentHashMap<String, ClientOutbox> outboxes = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final ClientOutbox.OverflowPolicy overflowPolicy;
+    private final int maxBatchSize = ServerConfig.getInt("CHAT_BATCH_MAX_SIZE", 64);
+    private final long batchWindowMillis = ServerConfig.getLong("CHAT_BATCH_WINDOW_MS", 5);
+    private final int circuitFailureThreshold = ServerConfig.getInt("CHAT_CIRCUIT_FAILURE_THRESHOLD", 2);
+    private final BiConsumer<String, ClientCallback> disconnectHandler;
+    private final Logger logger = Logger.getInstance();
+
+    public DeliveryDispatcher(BiConsumer<String, ClientCallback> disconnectHandler) {
+        this(ServerConfig.getInt("CHAT_OUTBOX_CAPACITY", 1024),
+                ServerConfig.getEnum("CHAT_OUTBOX_OVERFLOW", ClientOutbox.OverflowPolicy.class,
+                        ClientOutbox.OverflowPolicy.DROP_OLDEST),
+                disconnectHandler);
+    }
+
+    public DeliveryDispatcher(int capacity, ClientOutbox.OverflowPolicy overflowPolicy,
+                              BiConsumer<String, ClientCallback> disconnectHandler) {
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.disconnectHandler = disconnectHandler;
+        logger.info(() -> "Delivery dispatcher started with capacity " + capacity + " and overflow policy " + overflowPolicy);
+    }
+
+    public void register(String username, ClientCallback callback) {
+        ClientOutbox outbox = new ClientOutbox(username, callback, capacity, overflowPolicy,
+                maxBatchSize, batchWindowMillis, new CallbackCircuitBreaker(circuitFailureThreshold), this::onDisconnect);
+        ClientOutbox previous = outboxes.put(username, outbox);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public void unregister(String username) {
+        ClientOutbox outbox = outboxes.remove(username);
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    public boolean enqueue(String username, CallbackEvent event) {
+        ClientOutbox outbox = outboxes.get(username);
+        return outbox != null && outbox.enqueue(event);
+    }
+
+    public boolean isRegistered(String username) {
+        return outboxes.containsKey(username);
+    }
+
+    public boolean isReachable(String username) {
+        ClientOutbox outbox = outboxes.get(username);
+        return outbox != null && outbox.isReachable();
+    }
+
+    public Collection<ClientOutbox> getOutboxes() {
+        return outboxes.values();
+    }
+
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        outboxes.forEach((username, outbox) -> depths.put(username, outbox.getQueueDepth()));
+        return depths;
+    }
+
+    public ClientOutbox getOutbox(String username) {
+        return outboxes.get(username);
+    }
+
+    private void onDisconnect(ClientOutbox outbox) {
+        if (outboxes.remove(outbox.getUsername(), outbox)) {
+            logger.warn(() -> "Outbox closed for " + outbox.getUsername() + " after " + outbox.getDeliveredCount()
+                    + " deliveries, " + outbox.getDroppedCount() + " dropped");
+            Thread.startVirtualThread(() -> disconnectHandler.accept(outbox.getUsername(), outbox.getCallback()));
+        }
+    }
+}
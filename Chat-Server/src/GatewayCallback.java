@@ -0,0 +1,83 @@
+import java.rmi.RemoteException;
+import java.util.List;
+
+public final class GatewayCallback implements ClientCallback {
+    private final GatewayConnection connection;
+
+    public GatewayCallback(GatewayConnection connection) {
+        this.connection = connection;
+    }
+
+    public GatewayConnection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public void onFileReceived(Message fileMessage) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_FILE).writeMessage(fileMessage));
+    }
+
+    @Override
+    public void onRoomFileReceived(String roomName, Message fileMessage) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_ROOM_FILE).writeString(roomName).writeMessage(fileMessage));
+    }
+
+    @Override
+    public void onMessageReceived(Message message) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_MESSAGE).writeMessage(message));
+    }
+
+    @Override
+    public void onRoomMessageReceived(String roomName, Message message) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_ROOM_MESSAGE).writeString(roomName).writeMessage(message));
+    }
+
+    @Override
+    public void onUserStatusChanged(String username, boolean online) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_USER_STATUS).writeString(username).writeBoolean(online));
+    }
+
+    @Override
+    public void onPresenceSnapshot(PresenceSnapshot snapshot) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_PRESENCE_SNAPSHOT)
+                .writeLong(snapshot.getVersion())
+                .writeStrings(snapshot.getOnlineUsers()));
+    }
+
+    @Override
+    public void onPresenceDelta(long version, String username, boolean online) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_PRESENCE_DELTA)
+                .writeLong(version)
+                .writeString(username)
+                .writeBoolean(online));
+    }
+
+    @Override
+    public void onEventsReceived(List<CallbackEvent> events) throws RemoteException {
+        for (CallbackEvent event : events) {
+            event.deliverTo(this);
+        }
+    }
+
+    @Override
+    public void onHistoryChunk(long streamId, List<Message> chunk, boolean last) throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_HISTORY_CHUNK)
+                .writeLong(streamId)
+                .writeBoolean(last)
+                .writeMessages(chunk));
+    }
+
+    @Override
+    public void ping() throws RemoteException {
+        push(GatewayProtocol.event(GatewayProtocol.EVENT_PING));
+    }
+
+    private void push(GatewayProtocol.FrameWriter event) throws RemoteException {
+        if (connection.isClosed()) {
+            throw new RemoteException("Gateway connection " + connection.getRemoteAddress() + " is closed");
+        }
+        if (!connection.send(event.toFrame(), true)) {
+            throw new RemoteException("Gateway connection " + connection.getRemoteAddress() + " is not draining its events");
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class GatewayConnection {
+    private static final int MAX_GATHER = 16;
+
+    private final NioGateway gateway;
+    private final SocketChannel channel;
+    private final String remoteAddress;
+    private final int maxFrameBytes;
+    private final long maxPendingBytes;
+    private final int maxPipelinedRequests;
+    private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private SelectionKey key;
+    private ByteBuffer frame;
+    private long pendingBytes;
+    private boolean writeScheduled;
+    private volatile boolean readPaused;
+    private volatile String username;
+    private volatile GatewayCallback callback;
+
+    GatewayConnection(NioGateway gateway, SocketChannel channel, int maxFrameBytes, long maxPendingBytes,
+                      int maxPipelinedRequests) {
+        this.gateway = gateway;
+        this.channel = channel;
+        this.remoteAddress = describe(channel);
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxPendingBytes = maxPendingBytes;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+    }
+
+    private static String describe(SocketChannel channel) {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    void receive(ByteBuffer input) throws IOException {
+        while (input.hasRemaining()) {
+            if (frame == null) {
+                transfer(input, header);
+                if (header.hasRemaining()) {
+                    return;
+                }
+                int length = header.getInt(0);
+                if (length < GatewayProtocol.HEADER_BYTES || length > maxFrameBytes) {
+                    throw new IOException("Invalid frame length " + length + " from " + remoteAddress);
+                }
+                frame = ByteBuffer.allocate(length);
+            }
+            transfer(input, frame);
+            if (frame.hasRemaining()) {
+                return;
+            }
+            requests.add(frame.flip());
+            frame = null;
+            header.clear();
+            if (queuedRequests.incrementAndGet() >= maxPipelinedRequests) {
+                readPaused = true;
+            }
+            if (dispatching.compareAndSet(false, true)) {
+                Thread.startVirtualThread(this::dispatchRequests);
+            }
+        }
+    }
+
+    private static void transfer(ByteBuffer source, ByteBuffer target) {
+        int count = Math.min(source.remaining(), target.remaining());
+        target.put(target.position(), source, source.position(), count);
+        target.position(target.position() + count);
+        source.position(source.position() + count);
+    }
+
+    private void dispatchRequests() {
+        do {
+            ByteBuffer request;
+            while (!closed.get() && (request = requests.poll()) != null) {
+                int remaining = queuedRequests.decrementAndGet();
+                gateway.handle(this, request);
+                if (readPaused && remaining < maxPipelinedRequests / 2) {
+                    readPaused = false;
+                    gateway.requestInterestUpdate(this);
+                }
+            }
+            dispatching.set(false);
+        } while (!closed.get() && !requests.isEmpty() && dispatching.compareAndSet(false, true));
+    }
+
+    boolean send(ByteBuffer frame, boolean bounded) {
+        synchronized (outbound) {
+            if (closed.get() || bounded && pendingBytes + frame.remaining() > maxPendingBytes) {
+                return false;
+            }
+            outbound.add(frame);
+            pendingBytes += frame.remaining();
+            if (writeScheduled) {
+                return true;
+            }
+            writeScheduled = true;
+        }
+        gateway.requestInterestUpdate(this);
+        return true;
+    }
+
+    void flush() throws IOException {
+        synchronized (outbound) {
+            while (!outbound.isEmpty()) {
+                ByteBuffer[] batch = outbound.stream().limit(MAX_GATHER).toArray(ByteBuffer[]::new);
+                pendingBytes -= channel.write(batch);
+                while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+                    outbound.poll();
+                }
+                if (batch[batch.length - 1].hasRemaining()) {
+                    break;
+                }
+            }
+            writeScheduled = !outbound.isEmpty();
+        }
+        updateInterest();
+    }
+
+    void updateInterest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        boolean writing;
+        synchronized (outbound) {
+            writing = !outbound.isEmpty();
+        }
+        key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (writing ? SelectionKey.OP_WRITE : 0));
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Logger.getInstance().debug(() -> "Error closing gateway connection " + remoteAddress + ": " + e.getMessage());
+        }
+        synchronized (outbound) {
+            outbound.clear();
+            pendingBytes = 0;
+        }
+        requests.clear();
+        gateway.onClosed(this);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public GatewayCallback getCallback() {
+        return callback;
+    }
+
+    void bind(String username, GatewayCallback callback) {
+        this.username = username;
+        this.callback = callback;
+    }
+
+    void unbind() {
+        this.username = null;
+        this.callback = null;
+    }
+
+    public long getPendingBytes() {
+        synchronized (outbound) {
+            return pendingBytes;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public final class GatewayProtocol {
+    public static final int HEADER_BYTES = Integer.BYTES + 1;
+    public static final int EVENT_ID = 0;
+
+    public static final byte SIGN_IN = 1;
+    public static final byte SIGN_OUT = 2;
+    public static final byte SIGN_UP = 3;
+    public static final byte SEND_MESSAGE = 4;
+    public static final byte SEND_ROOM_MESSAGE = 5;
+    public static final byte ADD_ROOM = 6;
+    public static final byte JOIN_ROOM = 7;
+    public static final byte LEAVE_ROOM = 8;
+    public static final byte IS_IN_ROOM = 9;
+    public static final byte MESSAGE_HISTORY = 10;
+    public static final byte CONVERSATION_HISTORY = 11;
+    public static final byte ROOM_HISTORY = 12;
+    public static final byte STREAM_HISTORY = 13;
+    public static final byte SEARCH_MESSAGES = 14;
+    public static final byte ROOM_CLIENTS = 15;
+    public static final byte ONLINE_USERS = 16;
+    public static final byte PRESENCE_SNAPSHOT = 17;
+    public static final byte AVAILABLE_ROOMS = 18;
+    public static final byte SEND_FILE = 19;
+    public static final byte SEND_ROOM_FILE = 20;
+    public static final byte BEGIN_UPLOAD = 21;
+    public static final byte UPLOAD_CHUNK = 22;
+    public static final byte UPLOAD_OFFSET = 23;
+    public static final byte COMMIT_UPLOAD = 24;
+    public static final byte ABORT_UPLOAD = 25;
+    public static final byte DOWNLOAD_FILE = 26;
+    public static final byte PING = 27;
+
+    public static final byte EVENT_MESSAGE = 64;
+    public static final byte EVENT_ROOM_MESSAGE = 65;
+    public static final byte EVENT_FILE = 66;
+    public static final byte EVENT_ROOM_FILE = 67;
+    public static final byte EVENT_USER_STATUS = 68;
+    public static final byte EVENT_PRESENCE_SNAPSHOT = 69;
+    public static final byte EVENT_PRESENCE_DELTA = 70;
+    public static final byte EVENT_HISTORY_CHUNK = 71;
+    public static final byte EVENT_PING = 72;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    private static final int ROOM_FLAG = 1;
+    private static final int FILE_DATA_FLAG = 1 << 1;
+
+    private GatewayProtocol() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static FrameWriter response(int requestId, byte opcode) {
+        return new FrameWriter(requestId, opcode).writeByte(STATUS_OK);
+    }
+
+    public static FrameWriter error(int requestId, byte opcode, String reason) {
+        return new FrameWriter(requestId, opcode).writeByte(STATUS_ERROR).writeString(reason);
+    }
+
+    public static FrameWriter event(byte opcode) {
+        return new FrameWriter(EVENT_ID, opcode);
+    }
+
+    public static final class FrameWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private FrameWriter(int requestId, byte opcode) {
+            writeInt(0).writeInt(requestId).writeByte(opcode);
+        }
+
+        public FrameWriter writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        public FrameWriter writeBoolean(boolean value) {
+            return writeByte(value ? 1 : 0);
+        }
+
+        public FrameWriter writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        public FrameWriter writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        public FrameWriter writeBytes(byte[] value) {
+            if (value == null) {
+                return writeInt(-1);
+            }
+            writeInt(value.length);
+            bytes.writeBytes(value);
+            return this;
+        }
+
+        public FrameWriter writeString(String value) {
+            return writeBytes(value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+        }
+
+        public FrameWriter writeStrings(String[] values) {
+            if (values == null) {
+                return writeInt(-1);
+            }
+            writeInt(values.length);
+            for (String value : values) {
+                writeString(value);
+            }
+            return this;
+        }
+
+        public FrameWriter writeMessage(Message message) {
+            int flags = (message.isRoomMessage() ? ROOM_FLAG : 0) | (message.getFileData() != null ? FILE_DATA_FLAG : 0);
+            writeByte(flags)
+                    .writeLong(message.getId())
+                    .writeLong(message.getTimestamp())
+                    .writeString(message.getSender())
+                    .writeString(message.getRecipient())
+                    .writeString(message.getContent())
+                    .writeString(message.getFileHash())
+                    .writeLong(message.getFileSize());
+            if (message.getFileData() != null) {
+                writeBytes(message.getFileData());
+            }
+            return this;
+        }
+
+        public FrameWriter writeMessages(List<Message> messages) {
+            if (messages == null) {
+                return writeInt(-1);
+            }
+            writeInt(messages.size());
+            for (Message message : messages) {
+                writeMessage(message);
+            }
+            return this;
+        }
+
+        public ByteBuffer toFrame() {
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            frame.putInt(0, frame.capacity() - Integer.BYTES);
+            return frame;
+        }
+    }
+
+    public static final class FrameReader {
+        private final ByteBuffer buffer;
+
+        public FrameReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public boolean readBoolean() {
+            return buffer.get() != 0;
+        }
+
+        public int readInt() {
+            return buffer.getInt();
+        }
+
+        public long readLong() {
+            return buffer.getLong();
+        }
+
+        public byte[] readBytes() {
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            if (length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            byte[] value = new byte[length];
+            buffer.get(value);
+            return value;
+        }
+
+        public String readString() {
+            byte[] value = readBytes();
+            return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class HttpGateway {
+    private static final String API_PREFIX = "/api/";
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final int MAX_FORM_BYTES = 64 * 1024;
+
+    private static final class Session {
+        private final String token;
+        private final String username;
+        private final SseCallback callback;
+        private final AtomicLong streamGeneration = new AtomicLong();
+        private volatile long lastSeen = System.currentTimeMillis();
+        private volatile boolean streaming;
+
+        private Session(String token, String username, SseCallback callback) {
+            this.token = token;
+            this.username = username;
+            this.callback = callback;
+        }
+    }
+
+    private static final class HttpError extends Exception {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private HttpError(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private final ChatServiceImpl chatService;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService sweeper;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final int eventCapacity;
+    private final long heartbeatMillis;
+    private final long sessionTimeoutMillis;
+    private final long maxUploadChunkBytes;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final Logger logger = Logger.getInstance();
+
+    public HttpGateway(ChatServiceImpl chatService, int port) throws IOException {
+        this(chatService, new InetSocketAddress(ServerConfig.getString("CHAT_HTTP_BIND", "127.0.0.1"), port),
+                ServerConfig.getInt("CHAT_SSE_EVENT_CAPACITY", 1024),
+                ServerConfig.getLong("CHAT_SSE_HEARTBEAT_MS", 15_000),
+                ServerConfig.getLong("CHAT_HTTP_SESSION_TIMEOUT_MS", 300_000));
+    }
+
+    public HttpGateway(ChatServiceImpl chatService, InetSocketAddress address, int eventCapacity, long heartbeatMillis,
+                       long sessionTimeoutMillis) throws IOException {
+        this.chatService = chatService;
+        this.eventCapacity = eventCapacity;
+        this.heartbeatMillis = heartbeatMillis;
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+        this.maxUploadChunkBytes = ServerConfig.getInt("CHAT_UPLOAD_MAX_CHUNK_BYTES", 4 * 1024 * 1024);
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext(API_PREFIX, this::dispatch);
+        server.start();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("http-session-sweeper").daemon().factory());
+        long sweepMillis = Math.max(1_000, sessionTimeoutMillis / 4);
+        sweeper.scheduleWithFixedDelay(this::expireIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            String[] path = exchange.getRequestURI().getPath().substring(API_PREFIX.length()).split("/");
+            Map<String, String> params = readParams(exchange);
+            route(exchange, exchange.getRequestMethod(), path, params);
+        } catch (HttpError e) {
+            sendJson(exchange, e.status, HttpJson.field("error", HttpJson.string(e.getMessage())));
+        } catch (RemoteException | RuntimeException e) {
+            logger.error(() -> "HTTP request " + exchange.getRequestURI().getPath() + " failed: " + e.getMessage());
+            sendJson(exchange, 500, HttpJson.field("error", HttpJson.string(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, String[] path, Map<String, String> params)
+            throws IOException, HttpError {
+        String resource = path[0];
+        String id = path.length > 1 ? URLDecoder.decode(path[1], StandardCharsets.UTF_8) : null;
+        String action = path.length > 2 ? path[2] : null;
+        switch (method + " " + resource + (id != null ? "/" : "") + (action != null ? "/" + action : "")) {
+            case "POST signup" -> {
+                chatService.signUp(required(params, "username"), required(params, "password"),
+                        params.getOrDefault("firstName", ""), params.getOrDefault("lastName", ""));
+                sendJson(exchange, 200, "{}");
+            }
+            case "POST session" -> signIn(exchange, required(params, "username"), required(params, "password"));
+            case "DELETE session" -> {
+                signOut(authenticate(exchange, params));
+                sendJson(exchange, 200, "{}");
+            }
+            case "GET events" -> streamEvents(exchange, authenticate(exchange, params), lastEventId(exchange));
+            case "POST messages" -> {
+                chatService.sendMessage(user(exchange, params), required(params, "recipient"), required(params, "content"));
+                sendJson(exchange, 200, "{}");
+            }
+            case "GET history" -> sendJson(exchange, 200, HttpJson.messages(chatService.getMessageHistory(user(exchange, params))));
+            case "POST history" -> sendJson(exchange, 200, HttpJson.field("streamId", String.valueOf(
+                    chatService.streamMessageHistory(user(exchange, params), intParam(params, "chunkSize", 100)))));
+            case "GET conversations/" -> sendJson(exchange, 200, HttpJson.messages(chatService.getConversationHistory(
+                    user(exchange, params), id, longParam(params, "beforeId", Long.MAX_VALUE), intParam(params, "limit", 50))));
+            case "GET search" -> sendJson(exchange, 200, HttpJson.messages(chatService.searchMessages(user(exchange, params),
+                    required(params, "q"), params.get("room"), params.get("partner"),
+                    intParam(params, "offset", 0), intParam(params, "limit", 20))));
+            case "GET users" -> {
+                user(exchange, params);
+                sendJson(exchange, 200, HttpJson.strings(chatService.getOnlineUsers()));
+            }
+            case "GET presence" -> {
+                user(exchange, params);
+                sendJson(exchange, 200, HttpJson.presence(chatService.getPresenceSnapshot()));
+            }
+            case "GET rooms" -> {
+                user(exchange, params);
+                sendJson(exchange, 200, HttpJson.strings(chatService.getAvailableRooms()));
+            }
+            case "POST rooms" -> {
+                user(exchange, params);
+                chatService.addChatRoom(required(params, "roomName"));
+                sendJson(exchange, 200, "{}");
+            }
+            case "GET rooms/", "GET rooms//members" -> {
+                user(exchange, params);
+                sendJson(exchange, 200, HttpJson.strings(chatService.getRoomClients(id)));
+            }
+            case "POST rooms//join" -> sendJson(exchange, 200, HttpJson.field("joined",
+                    String.valueOf(chatService.joinRoom(user(exchange, params), id))));
+            case "POST rooms//leave" -> sendJson(exchange, 200, HttpJson.field("left",
+                    String.valueOf(chatService.leaveRoom(user(exchange, params), id))));
+            case "GET rooms//membership" -> sendJson(exchange, 200, HttpJson.field("member",
+                    String.valueOf(chatService.isUserInRoom(user(exchange, params), id))));
+            case "POST rooms//messages" -> {
+                chatService.sendMessageToRoom(user(exchange, params), id, required(params, "content"));
+                sendJson(exchange, 200, "{}");
+            }
+            case "GET rooms//history" -> {
+                user(exchange, params);
+                sendJson(exchange, 200, HttpJson.messages(chatService.getRoomHistory(id,
+                        longParam(params, "beforeId", Long.MAX_VALUE), intParam(params, "limit", 50))));
+            }
+            case "POST rooms//files" -> {
+                String sender = user(exchange, params);
+                chatService.sendFileToRoom(sender, id, readBody(exchange, maxUploadChunkBytes), required(params, "fileName"));
+                sendJson(exchange, 200, "{}");
+            }
+            case "POST files" -> {
+                String sender = user(exchange, params);
+                chatService.sendFile(sender, required(params, "recipient"), readBody(exchange, maxUploadChunkBytes),
+                        required(params, "fileName"));
+                sendJson(exchange, 200, "{}");
+            }
+            case "GET files/" -> downloadFile(exchange, user(exchange, params), id, params);
+            case "POST uploads" -> {
+                String uploadId = chatService.beginUpload(user(exchange, params), required(params, "fileName"),
+                        longParam(params, "fileSize", -1));
+                if (uploadId == null) {
+                    throw new HttpError(400, "Upload could not be started");
+                }
+                sendJson(exchange, 200, HttpJson.field("uploadId", HttpJson.string(uploadId)));
+            }
+            case "PUT uploads/" -> {
+                String sender = user(exchange, params);
+                long offset = chatService.uploadChunk(sender, id, longParam(params, "offset", -1),
+                        readBody(exchange, maxUploadChunkBytes), longParam(params, "checksum", -1));
+                sendJson(exchange, 200, HttpJson.field("offset", String.valueOf(offset)));
+            }
+            case "GET uploads/" -> sendJson(exchange, 200, HttpJson.field("offset",
+                    String.valueOf(chatService.getUploadOffset(user(exchange, params), id))));
+            case "POST uploads//commit" -> sendJson(exchange, 200, HttpJson.field("committed", String.valueOf(
+                    chatService.commitUpload(user(exchange, params), id, required(params, "recipient"),
+                            Boolean.parseBoolean(params.get("room"))))));
+            case "DELETE uploads/" -> {
+                chatService.abortUpload(user(exchange, params), id);
+                sendJson(exchange, 200, "{}");
+            }
+            default -> throw new HttpError(404, "No route for " + method + " " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private void signIn(HttpExchange exchange, String username, String password) throws IOException {
+        if (!chatService.signIn(username, password)) {
+            sendJson(exchange, 401, HttpJson.field("error", HttpJson.string("Invalid username or password")));
+            return;
+        }
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(secret);
+        Session session = new Session(token, username, new SseCallback(username, eventCapacity));
+        sessions.put(token, session);
+        chatService.registerCallback(username, session.callback);
+        logger.info(() -> "HTTP session opened for " + username);
+        sendJson(exchange, 200, HttpJson.field("token", HttpJson.string(token)));
+    }
+
+    private void signOut(Session session) throws RemoteException {
+        if (sessions.remove(session.token, session)) {
+            session.streamGeneration.incrementAndGet();
+            session.callback.close();
+            chatService.releaseCallback(session.username, session.callback);
+            logger.info(() -> "HTTP session closed for " + session.username);
+        }
+    }
+
+    private void streamEvents(HttpExchange exchange, Session session, long lastEventId) throws IOException {
+        long generation = session.streamGeneration.incrementAndGet();
+        if (lastEventId >= 0) {
+            int replayed = session.callback.replayAfter(lastEventId);
+            logger.debug(() -> "Replaying " + replayed + " events after " + lastEventId + " for " + session.username);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("X-Accel-Buffering", "no");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        session.streaming = true;
+        logger.debug(() -> "Event stream attached for " + session.username);
+        SseCallback.Event event = null;
+        try {
+            out.write(("retry: " + heartbeatMillis + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            while (session.streamGeneration.get() == generation && !session.callback.isClosed()) {
+                event = session.callback.poll(heartbeatMillis);
+                if (session.streamGeneration.get() != generation) {
+                    break;
+                }
+                out.write((event != null ? event.text() : ": keepalive\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                event = null;
+                session.lastSeen = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            logger.debug(() -> "Event stream for " + session.username + " ended: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (event != null) {
+                session.callback.requeue(event);
+            }
+            if (session.streamGeneration.get() == generation) {
+                session.streaming = false;
+                session.lastSeen = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private static long lastEventId(HttpExchange exchange) throws HttpError {
+        String value = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Last-Event-ID is not a number: " + value);
+        }
+    }
+
+    private void downloadFile(HttpExchange exchange, String username, String fileHash, Map<String, String> params)
+            throws IOException, HttpError {
+        byte[] data = chatService.downloadFile(username, fileHash, longParam(params, "offset", 0),
+                intParam(params, "length", Integer.MAX_VALUE));
+        if (data == null) {
+            throw new HttpError(404, "File " + fileHash + " is not available");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, data.length == 0 ? -1 : data.length);
+        exchange.getResponseBody().write(data);
+    }
+
+    private Session authenticate(HttpExchange exchange, Map<String, String> params) throws HttpError {
+        String token = params.get("token");
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            token = authorization.substring("Bearer ".length()).trim();
+        }
+        Session session = token != null ? sessions.get(token) : null;
+        if (session == null) {
+            throw new HttpError(401, "Not signed in");
+        }
+        session.lastSeen = System.currentTimeMillis();
+        return session;
+    }
+
+    private String user(HttpExchange exchange, Map<String, String> params) throws HttpError {
+        return authenticate(exchange, params).username;
+    }
+
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException, HttpError {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            parseForm(new String(readBody(exchange, MAX_FORM_BYTES), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> params) {
+        if (form == null || form.isEmpty()) {
+            return;
+        }
+        for (String pair : form.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0 ? pair : pair.substring(0, separator);
+            String value = separator < 0 ? "" : pair.substring(separator + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange, long limit) throws IOException, HttpError {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes((int) Math.min(limit + 1, Integer.MAX_VALUE - 8));
+            if (body.length > limit) {
+                throw new HttpError(413, "Request body exceeds " + limit + " bytes");
+            }
+            return body;
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) throws HttpError {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new HttpError(400, "Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) throws HttpError {
+        long value = longParam(params, name, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new HttpError(400, "Parameter " + name + " is out of range");
+        }
+        return (int) value;
+    }
+
+    private static long longParam(Map<String, String> params, String name, long defaultValue) throws HttpError {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Parameter " + name + " is not a number: " + value);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void expireIdle() {
+        long cutoff = System.currentTimeMillis() - sessionTimeoutMillis;
+        sessions.forEach((token, session) -> {
+            if (!session.streaming && session.lastSeen < cutoff) {
+                try {
+                    signOut(session);
+                    expired.incrementAndGet();
+                    logger.info(() -> "HTTP session for " + session.username + " expired without an event stream");
+                } catch (RemoteException e) {
+                    logger.warn(() -> "Failed to expire HTTP session for " + session.username + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+        for (Session session : sessions.values()) {
+            try {
+                signOut(session);
+            } catch (RemoteException e) {
+                logger.warn(() -> "Failed to close HTTP session for " + session.username + ": " + e.getMessage());
+            }
+        }
+        server.stop(1);
+        executor.shutdownNow();
+        logger.info(() -> "HTTP gateway closed after " + requests.get() + " requests");
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.List;
+
+public final class HttpJson {
+    private HttpJson() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static String string(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    public static String strings(String[] values) {
+        if (values == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            out.append(i > 0 ? "," : "").append(string(values[i]));
+        }
+        return out.append(']').toString();
+    }
+
+    public static String message(Message message) {
+        return "{\"id\":" + message.getId()
+                + ",\"sender\":" + string(message.getSender())
+                + ",\"recipient\":" + string(message.getRecipient())
+                + ",\"content\":" + string(message.getContent())
+                + ",\"timestamp\":" + message.getTimestamp()
+                + ",\"room\":" + message.isRoomMessage()
+                + ",\"fileName\":" + string(message.getFileName())
+                + ",\"fileHash\":" + string(message.getFileHash())
+                + ",\"fileSize\":" + message.getFileSize()
+                + "}";
+    }
+
+    public static String messages(List<Message> messages) {
+        if (messages == null) {
+            return "null";
+        }
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < messages.size(); i++) {
+            out.append(i > 0 ? "," : "").append(message(messages.get(i)));
+        }
+        return out.append(']').toString();
+    }
+
+    public static String presence(PresenceSnapshot snapshot) {
+        return "{\"version\":" + snapshot.getVersion() + ",\"onlineUsers\":" + strings(snapshot.getOnlineUsers()) + "}";
+    }
+
+    public static String field(String name, String json) {
+        return "{" + string(name) + ":" + json + "}";
+    }
+}
@@ -1,19 +1,84 @@
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 public final class Logger {
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    private static final class Slot {
+        private volatile long sequence;
+        private long timestamp;
+        private Level level;
+        private String message;
+
+        private Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
     private static final AtomicReference<Logger> instance = new AtomicReference<>();
     private static final String LOG_FILE = "./chat_app_logs.txt";
-    private final SimpleDateFormat dateFormat;
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final Path logFile;
+    private final Level minLevel;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private final StringBuilder line = new StringBuilder(256);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private long head;
+    private FileChannel channel;
+    private long fileSize;
+    private long cachedSecond = -1;
+    private String cachedDate;
+    private volatile boolean writerParked;
+    private volatile boolean running = true;
 
     private Logger() {
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        createLogFile();
+        logFile = Paths.get(ServerConfig.getString("CHAT_LOG_FILE", LOG_FILE));
+        minLevel = parseLevel(ServerConfig.getString("CHAT_LOG_LEVEL", "INFO"), Level.INFO);
+        maxFileBytes = parseLong(ServerConfig.getString("CHAT_LOG_MAX_BYTES", null), 10L * 1024 * 1024);
+        maxFiles = (int) Math.max(1, parseLong(ServerConfig.getString("CHAT_LOG_MAX_FILES", null), 5));
+        int capacity = Integer.highestOneBit((int) Math.max(2, Math.min(1 << 20,
+                parseLong(ServerConfig.getString("CHAT_LOG_BUFFER_SIZE", null), 8192))));
+        ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot(i);
+        }
+        mask = capacity - 1;
+        openLogFile();
+        writer = Thread.ofPlatform().name("async-logger").daemon().start(this::drain);
     }
 
     public static Logger getInstance() {
@@ -30,45 +95,228 @@ public final class Logger {
         return result;
     }
 
-    private void createLogFile() {
-        File file = new File(LOG_FILE);
-        if (!file.exists()) {
-            try {
-                if (!file.createNewFile()) {
-                    throw new IOException("Could not create log file");
-                }
-            } catch (IOException e) {
-                Thread.currentThread().interrupt();
-                throw new IllegalStateException("Failed to create log file", e);
-            }
+    private static Level parseLevel(String value, Level defaultLevel) {
+        try {
+            return Level.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultLevel;
         }
     }
 
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private void openLogFile() {
+        try {
+            channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            fileSize = channel.size();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create log file", e);
+        }
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(minLevel) >= 0;
+    }
+
     public void log(String level, String message) {
         if (level == null || message == null) {
             throw new IllegalArgumentException("Level and message cannot be null");
         }
+        log(parseLevel(level, Level.INFO), message);
+    }
+
+    public void log(Level level, String message) {
+        if (message == null) {
+            throw new IllegalArgumentException("Level and message cannot be null");
+        }
+        if (isEnabled(level)) {
+            publish(level, message);
+        }
+    }
+
+    public void log(Level level, Supplier<String> messageSupplier) {
+        if (isEnabled(level)) {
+            publish(level, messageSupplier.get());
+        }
+    }
+
+    private void publish(Level level, String message) {
+        if (!running) {
+            System.err.println("[" + DATE_FORMAT.format(Instant.now()) + "] [" + level + "] " + message);
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        while (true) {
+            long position = tail.get();
+            Slot slot = ring[(int) (position & mask)];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.timestamp = timestamp;
+                    slot.level = level;
+                    slot.message = message;
+                    slot.sequence = position + 1;
+                    if (writerParked) {
+                        LockSupport.unpark(writer);
+                    }
+                    return;
+                }
+            } else if (difference < 0) {
+                if (!running) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            boolean wrote = false;
+            Slot slot;
+            while ((slot = ring[(int) (head & mask)]).sequence == head + 1) {
+                append(slot);
+                slot.message = null;
+                slot.level = null;
+                slot.sequence = head + ring.length;
+                head++;
+                wrote = true;
+            }
+            if (wrote) {
+                continue;
+            }
+            flushBuffer();
+            if (!running && tail.get() == head) {
+                break;
+            }
+            writerParked = true;
+            if (ring[(int) (head & mask)].sequence != head + 1 && running) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            writerParked = false;
+        }
+        flushBuffer();
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close log file: " + e.getMessage());
+        }
+    }
 
-        String logEntry = String.format("[%s] [%s] %s%n",
-                dateFormat.format(new Date()), level, message);
+    private void append(Slot slot) {
+        long second = slot.timestamp / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedDate = DATE_FORMAT.format(Instant.ofEpochMilli(slot.timestamp));
+        }
+        line.setLength(0);
+        line.append('[').append(cachedDate).append("] [").append(slot.level).append("] ")
+                .append(slot.message).append(System.lineSeparator());
+        CharBuffer chars = CharBuffer.wrap(line);
+        while (chars.hasRemaining()) {
+            encoder.encode(chars, buffer, true);
+            if (chars.hasRemaining()) {
+                flushBuffer();
+            }
+        }
+        encoder.reset();
+    }
 
-        try (PrintWriter writer = new PrintWriter(new FileWriter(LOG_FILE, true))) {
-            writer.write(logEntry);
+    private void flushBuffer() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            if (fileSize + buffer.remaining() > maxFileBytes && fileSize > 0) {
+                rotate();
+            }
+            while (buffer.hasRemaining()) {
+                fileSize += channel.write(buffer);
+            }
         } catch (IOException e) {
+            System.err.println("Failed to write to log file: " + e.getMessage());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+        for (int index = maxFiles - 1; index >= 1; index--) {
+            Path source = rotatedPath(index);
+            if (Files.exists(source)) {
+                Files.move(source, rotatedPath(index + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(logFile, rotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(rotatedPath(maxFiles + 1));
+        openLogFile();
+    }
+
+    private Path rotatedPath(int index) {
+        return logFile.resolveSibling(logFile.getFileName() + "." + index);
+    }
+
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            throw new IllegalStateException("Failed to write to log file", e);
         }
     }
 
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public void debug(Supplier<String> messageSupplier) {
+        log(Level.DEBUG, messageSupplier);
+    }
+
     public void info(String message) {
-        log("INFO", message);
+        log(Level.INFO, message);
+    }
+
+    public void info(Supplier<String> messageSupplier) {
+        log(Level.INFO, messageSupplier);
     }
 
     public void error(String message) {
-        log("ERROR", message);
+        log(Level.ERROR, message);
+    }
+
+    public void error(Supplier<String> messageSupplier) {
+        log(Level.ERROR, messageSupplier);
     }
 
     public void warn(String message) {
-        log("WARN", message);
+        log(Level.WARN, message);
+    }
+
+    public void warn(Supplier<String> messageSupplier) {
+        log(Level.WARN, messageSupplier);
     }
-}
\ No newline at end of file
+}
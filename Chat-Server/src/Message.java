@@ -1,12 +1,46 @@
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serial;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class Message implements Serializable {
-    private final String sender;
-    private final String recipient;
-    private final String content;
-    private final long timestamp;
+public class Message implements Externalizable {
+    @Serial
+    private static final long serialVersionUID = 2L;
+
+    private static final String FILE_PREFIX = "FILE:";
+    private static final byte TEXT = 0;
+    private static final byte FILE = 1;
+    private static final int ROOM_FLAG = 1;
+    private static final int FILE_FLAG = 1 << 1;
+    private static final int COMPRESSED_FLAG = 1 << 2;
+    private static final int FILE_HASH_FLAG = 1 << 3;
+    private static final int FILE_DATA_FLAG = 1 << 4;
+    private static final int SHARED_NAMES_FLAG = 1 << 5;
+    private static final int MAX_POOLED_NAMES = 10_000;
+    private static final ConcurrentHashMap<String, String> NAME_POOL = new ConcurrentHashMap<>();
+    private static volatile boolean shareNames = true;
+
+    private long id;
+    private String sender;
+    private String recipient;
+    private String content;
+    private long timestamp;
+    private byte type;
+    private String fileName;
     private boolean isRoomMessage;
     private byte[] fileData;
+    private String fileHash;
+    private long fileSize;
+    private byte[] compressedContent;
+    private int contentLength;
+
+    public Message() {
+    }
 
     public Message(String sender, String recipient, String content, long timestamp) {
         this.sender = sender;
@@ -15,6 +49,22 @@ public class Message implements Serializable {
         this.timestamp = timestamp;
         this.isRoomMessage = false;
         this.fileData = null;
+        if (content != null && content.startsWith(FILE_PREFIX)) {
+            this.type = FILE;
+            this.fileName = content.substring(FILE_PREFIX.length());
+        }
+    }
+
+    public static void setNameSharing(boolean enabled) {
+        shareNames = enabled;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
     }
 
     public String getSender() {
@@ -26,9 +76,34 @@ public class Message implements Serializable {
     }
 
     public String getContent() {
+        if (content == null && compressedContent != null) {
+            content = PayloadCodec.inflateText(compressedContent, contentLength);
+        }
         return content;
     }
 
+    Message withCompressedContent(byte[] deflated, int length) {
+        Message copy = new Message(sender, recipient, null, timestamp);
+        copy.id = id;
+        copy.type = type;
+        copy.fileName = fileName;
+        copy.isRoomMessage = isRoomMessage;
+        copy.fileData = fileData;
+        copy.fileHash = fileHash;
+        copy.fileSize = fileSize;
+        copy.compressedContent = deflated;
+        copy.contentLength = length;
+        return copy;
+    }
+
+    int getContentLength() {
+        return contentLength;
+    }
+
+    int getCompressedContentLength() {
+        return compressedContent != null ? compressedContent.length : 0;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -49,11 +124,179 @@ public class Message implements Serializable {
         return fileData;
     }
 
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public void setFileHash(String fileHash) {
+        this.fileHash = fileHash;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
     public boolean isFile() {
-        return content != null && content.startsWith("FILE:");
+        return type == FILE;
     }
 
     public String getFileName() {
-        return isFile() ? content.substring(5) : null;
+        return fileName;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        boolean sharedNames = shareNames;
+        boolean compressed = type == TEXT && content == null && compressedContent != null;
+        boolean hashed = fileHash != null;
+        int flags = (isRoomMessage ? ROOM_FLAG : 0)
+                | (type == FILE ? FILE_FLAG : 0)
+                | (compressed ? COMPRESSED_FLAG : 0)
+                | (hashed ? FILE_HASH_FLAG : 0)
+                | (fileData != null ? FILE_DATA_FLAG : 0)
+                | (sharedNames ? SHARED_NAMES_FLAG : 0);
+        out.writeByte(flags);
+        writeVarLong(out, id);
+        writeVarLong(out, timestamp);
+        writeName(out, sender, sharedNames);
+        writeName(out, recipient, sharedNames);
+        if (type == FILE) {
+            writeString(out, fileName);
+        } else if (compressed) {
+            writeVarLong(out, contentLength);
+            writeBytes(out, compressedContent);
+        } else {
+            writeString(out, content);
+        }
+        if (hashed) {
+            out.write(HexFormat.of().parseHex(fileHash));
+            writeVarLong(out, fileSize);
+        }
+        if (fileData != null) {
+            writeBytes(out, fileData);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int flags = in.readUnsignedByte();
+        boolean sharedNames = (flags & SHARED_NAMES_FLAG) != 0;
+        isRoomMessage = (flags & ROOM_FLAG) != 0;
+        id = readVarLong(in);
+        timestamp = readVarLong(in);
+        sender = readName(in, sharedNames);
+        recipient = readName(in, sharedNames);
+        if ((flags & FILE_FLAG) != 0) {
+            type = FILE;
+            fileName = readString(in);
+            content = fileName != null ? FILE_PREFIX + fileName : null;
+        } else if ((flags & COMPRESSED_FLAG) != 0) {
+            contentLength = (int) readVarLong(in);
+            compressedContent = readBytes(in);
+        } else {
+            content = readString(in);
+        }
+        if ((flags & FILE_HASH_FLAG) != 0) {
+            byte[] hash = new byte[32];
+            in.readFully(hash);
+            fileHash = HexFormat.of().formatHex(hash);
+            fileSize = readVarLong(in);
+        }
+        if ((flags & FILE_DATA_FLAG) != 0) {
+            fileData = readBytes(in);
+        }
+    }
+
+    private static void writeName(ObjectOutput out, String name, boolean shared) throws IOException {
+        if (shared) {
+            out.writeObject(name != null ? pooledName(name) : null);
+        } else {
+            writeString(out, name);
+        }
+    }
+
+    private static String readName(ObjectInput in, boolean shared) throws IOException, ClassNotFoundException {
+        if (!shared) {
+            return readString(in);
+        }
+        Object name = in.readObject();
+        if (name != null && !(name instanceof String)) {
+            throw new InvalidObjectException("Expected a name but read " + name.getClass().getName());
+        }
+        return name != null ? pooledName((String) name) : null;
+    }
+
+    private static String pooledName(String name) {
+        String pooled = NAME_POOL.get(name);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (NAME_POOL.size() >= MAX_POOLED_NAMES) {
+            return name;
+        }
+        pooled = NAME_POOL.putIfAbsent(name, name);
+        return pooled != null ? pooled : name;
+    }
+
+    private static void writeString(ObjectOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    private static String readString(ObjectInput in) throws IOException {
+        long length = readVarLong(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[checkedLength(length - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(ObjectOutput out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(ObjectInput in) throws IOException {
+        byte[] bytes = new byte[checkedLength(readVarLong(in))];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static int checkedLength(long length) throws InvalidObjectException {
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new InvalidObjectException("Invalid length " + length);
+        }
+        return (int) length;
+    }
+
+    private static void writeVarLong(ObjectOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ObjectInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
     }
 }
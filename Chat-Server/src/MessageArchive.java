@@ -0,0 +1,501 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public final class MessageArchive {
+    private static final int INDEX_MAGIC = 0x43484156;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCK_CACHE_SIZE = 64;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DELETED_ROOMS_FILE = "deleted-rooms.dat";
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    private record Block(long offset, int compressedLength, int rawLength, long firstId, long lastId) {
+    }
+
+    private record Segment(Path path, boolean room, long firstId, long lastId, long minTimestamp, long maxTimestamp,
+                           List<Block> blocks, Set<String> keys, Set<String> users) {
+    }
+
+    private final Path directory;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, Long> deletedRooms = new ConcurrentHashMap<>();
+    private final Map<String, List<Message>> blockCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Message>> eldest) {
+            return size() > BLOCK_CACHE_SIZE;
+        }
+    };
+    private final Logger logger = Logger.getInstance();
+
+    public MessageArchive(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+            List<Segment> loaded = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    if (name.endsWith(TEMP_SUFFIX)) {
+                        Files.delete(path);
+                    } else if (name.endsWith(INDEX_SUFFIX)) {
+                        loaded.add(readIndex(path));
+                    }
+                }
+            }
+            loaded.sort(Comparator.comparingLong(Segment::firstId));
+            segments.addAll(loaded);
+            readDeletedRooms();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open message archive in " + directory, e);
+        }
+        logger.info(() -> "Message archive opened in " + directory + " with " + segments.size() + " segments");
+    }
+
+    public static String conversationKey(String user, String partner) {
+        return user.compareTo(partner) <= 0 ? user + "|" + partner : partner + "|" + user;
+    }
+
+    public long getArchivedThrough(boolean room) {
+        long through = 0;
+        for (Segment segment : segments) {
+            if (segment.room() == room) {
+                through = Math.max(through, segment.lastId());
+            }
+        }
+        return through;
+    }
+
+    public synchronized List<String> deleteRoom(String roomName) {
+        List<String> fileHashes = new ArrayList<>();
+        forEachRoomMessage(roomName, message -> {
+            if (message.getFileHash() != null) {
+                fileHashes.add(message.getFileHash());
+            }
+            return true;
+        });
+        long through = getArchivedThrough(true);
+        Long previous = deletedRooms.get(roomName);
+        if (previous != null && previous >= through) {
+            return fileHashes;
+        }
+        deletedRooms.put(roomName, through);
+        try {
+            writeDeletedRooms();
+        } catch (IOException e) {
+            if (previous != null) {
+                deletedRooms.put(roomName, previous);
+            } else {
+                deletedRooms.remove(roomName);
+            }
+            logger.error(() -> "Failed to record deletion of archived room " + roomName + ": " + e.getMessage());
+            return List.of();
+        }
+        logger.info(() -> "Hid archived messages of deleted room " + roomName + " through id " + through);
+        return fileHashes;
+    }
+
+    private boolean isVisible(Segment segment, Message message) {
+        return !segment.room() || message.getId() > deletedRooms.getOrDefault(message.getRecipient(), 0L);
+    }
+
+    private void readDeletedRooms() throws IOException {
+        Path path = directory.resolve(DELETED_ROOMS_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String roomName = readString(in);
+            deletedRooms.put(roomName, in.getLong());
+        }
+    }
+
+    private void writeDeletedRooms() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<String, Long> snapshot = Map.copyOf(deletedRooms);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+        Path path = directory.resolve(DELETED_ROOMS_FILE);
+        Path temp = directory.resolve(DELETED_ROOMS_FILE + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public void write(boolean room, List<Message> messages) throws IOException {
+        Map<String, List<Message>> byDay = new LinkedHashMap<>();
+        for (Message message : messages) {
+            byDay.computeIfAbsent(DAY_FORMAT.format(Instant.ofEpochMilli(message.getTimestamp())), k -> new ArrayList<>())
+                    .add(message);
+        }
+        for (Map.Entry<String, List<Message>> entry : byDay.entrySet()) {
+            writeSegment(room, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void writeSegment(boolean room, String day, List<Message> messages) throws IOException {
+        String baseName = (room ? "room-" : "direct-") + day + "-" + messages.getFirst().getId();
+        Path segmentPath = directory.resolve(baseName + SEGMENT_SUFFIX);
+        Path indexPath = directory.resolve(baseName + INDEX_SUFFIX);
+        Path segmentTemp = directory.resolve(baseName + SEGMENT_SUFFIX + TEMP_SUFFIX);
+        Path indexTemp = directory.resolve(baseName + INDEX_SUFFIX + TEMP_SUFFIX);
+
+        List<Block> blocks = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (FileChannel channel = FileChannel.open(segmentTemp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+            DataOutputStream out = new DataOutputStream(raw);
+            long blockFirstId = 0;
+            long offset = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                if (raw.size() == 0) {
+                    blockFirstId = message.getId();
+                }
+                out.writeLong(message.getId());
+                out.writeLong(message.getTimestamp());
+                writeString(out, message.getSender());
+                writeString(out, message.getRecipient());
+                writeString(out, message.getContent());
+                out.writeBoolean(message.getFileHash() != null);
+                if (message.getFileHash() != null) {
+                    writeString(out, message.getFileHash());
+                    out.writeLong(message.getFileSize());
+                }
+                keys.add(room ? message.getRecipient() : conversationKey(message.getSender(), message.getRecipient()));
+                minTimestamp = Math.min(minTimestamp, message.getTimestamp());
+                maxTimestamp = Math.max(maxTimestamp, message.getTimestamp());
+                if (raw.size() >= BLOCK_SIZE || i == messages.size() - 1) {
+                    byte[] compressed = deflate(deflater, raw.toByteArray());
+                    ByteBuffer buffer = ByteBuffer.wrap(compressed);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    blocks.add(new Block(offset, compressed.length, raw.size(), blockFirstId, message.getId()));
+                    offset += compressed.length;
+                    raw.reset();
+                }
+            }
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(indexBytes)) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeBoolean(room);
+            out.writeLong(minTimestamp);
+            out.writeLong(maxTimestamp);
+            out.writeInt(blocks.size());
+            for (Block block : blocks) {
+                out.writeLong(block.offset());
+                out.writeInt(block.compressedLength());
+                out.writeInt(block.rawLength());
+                out.writeLong(block.firstId());
+                out.writeLong(block.lastId());
+            }
+            out.writeInt(keys.size());
+            for (String key : keys) {
+                writeString(out, key);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(indexTemp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(indexBytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(segmentTemp, segmentPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(indexTemp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        Segment segment = new Segment(segmentPath, room, messages.getFirst().getId(), messages.getLast().getId(),
+                minTimestamp, maxTimestamp, blocks, keys, usersOf(room, keys));
+        segments.add(segment);
+        long rawBytes = blocks.stream().mapToLong(Block::rawLength).sum();
+        long compressedBytes = blocks.stream().mapToLong(Block::compressedLength).sum();
+        logger.info(() -> "Archived " + messages.size() + " " + (room ? "room" : "direct") + " messages into "
+                + segmentPath.getFileName() + " (" + rawBytes + " -> " + compressedBytes + " bytes, " + blocks.size() + " blocks)");
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] input) {
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private Segment readIndex(Path indexPath) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        int magic = in.getInt();
+        if (magic != INDEX_MAGIC) {
+            throw new IOException("Not an archive index: " + indexPath);
+        }
+        int formatVersion = in.get();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported archive format version " + formatVersion + ": " + indexPath);
+        }
+        boolean room = in.get() != 0;
+        long minTimestamp = in.getLong();
+        long maxTimestamp = in.getLong();
+        int blockCount = in.getInt();
+        List<Block> blocks = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            blocks.add(new Block(in.getLong(), in.getInt(), in.getInt(), in.getLong(), in.getLong()));
+        }
+        int keyCount = in.getInt();
+        Set<String> keys = new HashSet<>(keyCount * 2);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add(readString(in));
+        }
+        String name = indexPath.getFileName().toString();
+        Path segmentPath = indexPath.resolveSibling(name.substring(0, name.length() - INDEX_SUFFIX.length()) + SEGMENT_SUFFIX);
+        return new Segment(segmentPath, room, blocks.getFirst().firstId(), blocks.getLast().lastId(),
+                minTimestamp, maxTimestamp, blocks, keys, usersOf(room, keys));
+    }
+
+    private static Set<String> usersOf(boolean room, Set<String> keys) {
+        Set<String> users = new HashSet<>();
+        if (!room) {
+            for (String key : keys) {
+                int separator = key.indexOf('|');
+                users.add(key.substring(0, separator));
+                users.add(key.substring(separator + 1));
+            }
+        }
+        return users;
+    }
+
+    private List<Message> readBlock(Segment segment, Block block) throws IOException {
+        String cacheKey = segment.path().getFileName() + "@" + block.offset();
+        synchronized (blockCache) {
+            List<Message> cached = blockCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ByteBuffer compressed = ByteBuffer.allocate(block.compressedLength());
+        try (FileChannel channel = FileChannel.open(segment.path(), StandardOpenOption.READ)) {
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, block.offset() + compressed.position()) < 0) {
+                    throw new IOException("Truncated archive segment " + segment.path().getFileName());
+                }
+            }
+        }
+        byte[] raw = new byte[block.rawLength()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block in " + segment.path().getFileName(), e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        List<Message> messages = new ArrayList<>();
+        while (in.hasRemaining()) {
+            long id = in.getLong();
+            long timestamp = in.getLong();
+            Message message = new Message(readString(in), readString(in), readString(in), timestamp);
+            message.setId(id);
+            message.setRoomMessage(segment.room());
+            if (in.get() != 0) {
+                message.setFileHash(readString(in));
+                message.setFileSize(in.getLong());
+            }
+            messages.add(message);
+        }
+        List<Message> decoded = Collections.unmodifiableList(messages);
+        synchronized (blockCache) {
+            blockCache.put(cacheKey, decoded);
+        }
+        return decoded;
+    }
+
+    public List<Message> getConversationPage(String user, String partner, long beforeId, int limit) {
+        String key = conversationKey(user, partner);
+        return page(false, beforeId, limit, segment -> segment.keys().contains(key),
+                message -> key.equals(conversationKey(message.getSender(), message.getRecipient())));
+    }
+
+    public List<Message> getUserPage(String user, long beforeId, int limit) {
+        return page(false, beforeId, limit, segment -> segment.users().contains(user),
+                message -> user.equals(message.getSender()) || user.equals(message.getRecipient()));
+    }
+
+    public List<Message> getRoomPage(String roomName, long beforeId, int limit) {
+        return page(true, beforeId, limit, segment -> segment.keys().contains(roomName),
+                message -> roomName.equals(message.getRecipient()));
+    }
+
+    private List<Message> page(boolean room, long beforeId, int limit, Predicate<Segment> segmentFilter, Predicate<Message> filter) {
+        long cursor = beforeId > 0 ? beforeId : Long.MAX_VALUE;
+        List<Segment> candidates = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.room() == room && segment.firstId() < cursor && segmentFilter.test(segment)) {
+                candidates.add(segment);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(Segment::lastId).reversed());
+        List<Message> newestFirst = new ArrayList<>();
+        try {
+            for (Segment segment : candidates) {
+                for (int b = segment.blocks().size() - 1; b >= 0 && newestFirst.size() < limit; b--) {
+                    Block block = segment.blocks().get(b);
+                    if (block.firstId() >= cursor) {
+                        continue;
+                    }
+                    List<Message> messages = readBlock(segment, block);
+                    for (int i = messages.size() - 1; i >= 0 && newestFirst.size() < limit; i--) {
+                        Message message = messages.get(i);
+                        if (message.getId() < cursor && filter.test(message) && isVisible(segment, message)) {
+                            newestFirst.add(message);
+                        }
+                    }
+                }
+                if (newestFirst.size() >= limit) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.error(() -> "Failed to read message archive: " + e.getMessage());
+        }
+        newestFirst.sort(Comparator.comparingLong(Message::getId));
+        return newestFirst;
+    }
+
+    public boolean forEachUserMessage(String user, Predicate<Message> consumer) {
+        return forEach(false, Long.MAX_VALUE, segment -> segment.users().contains(user),
+                message -> user.equals(message.getSender()) || user.equals(message.getRecipient()), consumer);
+    }
+
+    public boolean forEachRoomMessage(String roomName, Predicate<Message> consumer) {
+        return forEach(true, Long.MAX_VALUE, segment -> segment.keys().contains(roomName),
+                message -> roomName.equals(message.getRecipient()), consumer);
+    }
+
+    public boolean forEachMessage(boolean room, long maxId, Predicate<Message> consumer) {
+        return forEach(room, maxId, segment -> true, message -> true, consumer);
+    }
+
+    private boolean forEach(boolean room, long maxId, Predicate<Segment> segmentFilter, Predicate<Message> filter,
+                            Predicate<Message> consumer) {
+        try {
+            for (Segment segment : segments) {
+                if (segment.room() != room || segment.firstId() > maxId || !segmentFilter.test(segment)) {
+                    continue;
+                }
+                for (Block block : segment.blocks()) {
+                    if (block.firstId() > maxId) {
+                        break;
+                    }
+                    for (Message message : readBlock(segment, block)) {
+                        if (message.getId() <= maxId && filter.test(message) && isVisible(segment, message)
+                                && !consumer.test(message)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error(() -> "Failed to read message archive: " + e.getMessage());
+        }
+        return true;
+    }
+
+    public Message find(long id, boolean room) {
+        try {
+            for (Segment segment : segments) {
+                if (segment.room() != room || id < segment.firstId() || id > segment.lastId()) {
+                    continue;
+                }
+                for (Block block : segment.blocks()) {
+                    if (id >= block.firstId() && id <= block.lastId()) {
+                        for (Message message : readBlock(segment, block)) {
+                            if (message.getId() == id) {
+                                return isVisible(segment, message) ? message : null;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error(() -> "Failed to read message archive: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class MessageArchiver {
+    private static final String SELECT_MESSAGES_SQL = """
+            SELECT id, sender, recipient, content, timestamp, file_hash, file_size FROM messages
+            WHERE id > ? ORDER BY id LIMIT ?""";
+    private static final String SELECT_ROOM_MESSAGES_SQL = """
+            SELECT rm.id, rm.sender, cr.room_name AS recipient, rm.content, rm.timestamp, rm.file_hash, rm.file_size FROM room_messages rm
+            JOIN chat_rooms cr ON cr.room_id = rm.room_id
+            WHERE rm.id > ? ORDER BY rm.id LIMIT ?""";
+
+    private final ConnectionPool pool;
+    private final MessageArchive archive;
+    private final long maxAgeMillis;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong archived = new AtomicLong();
+    private final Logger logger = Logger.getInstance();
+
+    public MessageArchiver(ConnectionPool pool, MessageArchive archive, long maxAgeMillis) {
+        this(pool, archive, maxAgeMillis,
+                ServerConfig.getInt("CHAT_ARCHIVE_BATCH_SIZE", 10_000),
+                ServerConfig.getLong("CHAT_ARCHIVE_INTERVAL_MS", 3_600_000));
+    }
+
+    public MessageArchiver(ConnectionPool pool, MessageArchive archive, long maxAgeMillis, int batchSize, long intervalMillis) {
+        this.pool = pool;
+        this.archive = archive;
+        this.maxAgeMillis = maxAgeMillis;
+        this.batchSize = Math.max(1, batchSize);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("message-archiver").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::runOnce, TimeUnit.MINUTES.toMillis(1), intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info(() -> "Message archiver started for messages older than "
+                + TimeUnit.MILLISECONDS.toDays(maxAgeMillis) + " days");
+    }
+
+    public void runOnce() {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        try {
+            long start = System.nanoTime();
+            long count = archiveTable(false, cutoff) + archiveTable(true, cutoff);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (count > 0) {
+                logger.info(() -> "Archived " + count + " messages in " + elapsedMillis + " ms");
+            }
+        } catch (SQLException | IOException e) {
+            logger.error(() -> "Message archiving failed: " + e.getMessage());
+        }
+    }
+
+    private long archiveTable(boolean room, long cutoff) throws SQLException, IOException {
+        String table = room ? "room_messages" : "messages";
+        long through = archive.getArchivedThrough(room);
+        if (through > 0) {
+            // Rows left behind when a previous run stopped between writing the segment and deleting them.
+            deleteRange(table, 0, through);
+        }
+        long total = 0;
+        while (true) {
+            List<Message> batch = new ArrayList<>(Math.min(batchSize, 1024));
+            boolean reachedHot = false;
+            try (PooledConnection pooled = pool.borrow()) {
+                PreparedStatement pstmt = pooled.prepareStatement(room ? SELECT_ROOM_MESSAGES_SQL : SELECT_MESSAGES_SQL);
+                pstmt.setLong(1, through);
+                pstmt.setInt(2, batchSize);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        long timestamp = rs.getLong("timestamp");
+                        if (timestamp >= cutoff) {
+                            reachedHot = true;
+                            break;
+                        }
+                        Message message = new Message(
+                                rs.getString("sender"),
+                                rs.getString("recipient"),
+                                rs.getString("content"),
+                                timestamp
+                        );
+                        message.setId(rs.getLong("id"));
+                        message.setRoomMessage(room);
+                        String fileHash = rs.getString("file_hash");
+                        if (fileHash != null) {
+                            message.setFileHash(fileHash);
+                            message.setFileSize(rs.getLong("file_size"));
+                        }
+                        batch.add(message);
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                return total;
+            }
+            archive.write(room, batch);
+            long first = batch.getFirst().getId();
+            through = batch.getLast().getId();
+            deleteRange(table, first, through);
+            total += batch.size();
+            archived.addAndGet(batch.size());
+            if (reachedHot || batch.size() < batchSize) {
+                return total;
+            }
+        }
+    }
+
+    private void deleteRange(String table, long fromId, long toId) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement("DELETE FROM " + table + " WHERE id BETWEEN ? AND ?");
+            pstmt.setLong(1, fromId);
+            pstmt.setLong(2, toId);
+            int deleted = pstmt.executeUpdate();
+            if (deleted > 0) {
+                logger.debug(() -> "Removed " + deleted + " archived rows from " + table);
+            }
+        }
+    }
+
+    public long getArchivedCount() {
+        return archived.get();
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public final class MessageSearchIndex {
+    public record SearchHit(long messageId, boolean roomMessage, String scope, double score) {
+    }
+
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private byte[] frequencies = new byte[4];
+        private int size;
+
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                int capacity = size + (size >> 1) + 1;
+                docs = Arrays.copyOf(docs, capacity);
+                frequencies = Arrays.copyOf(frequencies, capacity);
+            }
+            docs[size] = doc;
+            frequencies[size] = (byte) Math.min(frequency, 255);
+            size++;
+        }
+
+        int frequencyAt(int index) {
+            return frequencies[index] & 0xFF;
+        }
+
+        int advance(int from, int doc) {
+            if (from >= size || docs[from] >= doc) {
+                return from;
+            }
+            int low = from;
+            int step = 1;
+            int high = from + 1;
+            while (high < size && docs[high] < doc) {
+                low = high;
+                step <<= 1;
+                high = from + step;
+            }
+            low++;
+            high = Math.min(high, size);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (docs[mid] < doc) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private record ScoredDoc(int doc, double score) {
+    }
+
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MAX_TOKEN_LENGTH = 40;
+    private static final int MAX_RESULTS = 1000;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<String, Integer> scopeIds = new HashMap<>();
+    private final List<String> scopeKeys = new ArrayList<>();
+    private final List<Boolean> roomScopes = new ArrayList<>();
+    private final Map<String, List<Integer>> userScopes = new HashMap<>();
+    private long[] docMessageIds = new long[1024];
+    private int[] docScopes = new int[1024];
+    private short[] docLengths = new short[1024];
+    private int docCount;
+    private long totalLength;
+    private final Logger logger = Logger.getInstance();
+
+    public static String roomScope(String roomName) {
+        return "room:" + roomName;
+    }
+
+    public static String conversationScope(String user, String partner) {
+        return user.compareTo(partner) <= 0 ? "dm:" + user + "|" + partner : "dm:" + partner + "|" + user;
+    }
+
+    public void index(Message message) {
+        Map<String, Integer> frequencies = tokenize(message.getContent());
+        if (frequencies.isEmpty()) {
+            return;
+        }
+        int length = 0;
+        for (int frequency : frequencies.values()) {
+            length += frequency;
+        }
+        lock.writeLock().lock();
+        try {
+            int scope = message.isRoomMessage()
+                    ? scopeId(roomScope(message.getRecipient()), true, null, null)
+                    : scopeId(conversationScope(message.getSender(), message.getRecipient()), false,
+                    message.getSender(), message.getRecipient());
+            int doc = docCount++;
+            if (doc == docMessageIds.length) {
+                int capacity = doc + (doc >> 1);
+                docMessageIds = Arrays.copyOf(docMessageIds, capacity);
+                docScopes = Arrays.copyOf(docScopes, capacity);
+                docLengths = Arrays.copyOf(docLengths, capacity);
+            }
+            docMessageIds[doc] = message.getId();
+            docScopes[doc] = scope;
+            docLengths[doc] = (short) Math.min(length, Short.MAX_VALUE);
+            totalLength += length;
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                terms.computeIfAbsent(entry.getKey(), k -> new Postings()).add(doc, entry.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int scopeId(String key, boolean room, String user, String partner) {
+        Integer existing = scopeIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int id = scopeKeys.size();
+        scopeIds.put(key, id);
+        scopeKeys.add(key);
+        roomScopes.add(room);
+        if (!room) {
+            userScopes.computeIfAbsent(user, k -> new ArrayList<>()).add(id);
+            if (!user.equals(partner)) {
+                userScopes.computeIfAbsent(partner, k -> new ArrayList<>()).add(id);
+            }
+        }
+        return id;
+    }
+
+    public List<SearchHit> search(String user, String query, String roomName, String partner, int offset, int limit) {
+        List<SearchHit> hits = new ArrayList<>();
+        Set<String> queryTerms = tokenize(query).keySet();
+        int wanted = Math.min(Math.max(0, offset) + Math.max(0, limit), MAX_RESULTS);
+        if (queryTerms.isEmpty() || wanted <= Math.max(0, offset)) {
+            return hits;
+        }
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            boolean[] allowed = allowedScopes(user, roomName, partner);
+            if (allowed == null) {
+                return hits;
+            }
+            Postings[] lists = new Postings[queryTerms.size()];
+            int index = 0;
+            for (String term : queryTerms) {
+                Postings postings = terms.get(term);
+                if (postings == null) {
+                    return hits;
+                }
+                lists[index++] = postings;
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+            double[] idf = new double[lists.length];
+            for (int i = 0; i < lists.length; i++) {
+                idf[i] = Math.log(1 + (docCount - lists[i].size + 0.5) / (lists[i].size + 0.5));
+            }
+            double averageLength = docCount == 0 ? 1 : (double) totalLength / docCount;
+
+            PriorityQueue<ScoredDoc> top = new PriorityQueue<>(wanted + 1, MessageSearchIndex::compareScored);
+            int[] cursors = new int[lists.length];
+            Postings lead = lists[0];
+            candidates:
+            for (int i = 0; i < lead.size; i++) {
+                int doc = lead.docs[i];
+                if (!allowed[docScopes[doc]]) {
+                    continue;
+                }
+                double norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                int frequency = lead.frequencyAt(i);
+                double score = idf[0] * frequency * (K1 + 1) / (frequency + norm);
+                for (int t = 1; t < lists.length; t++) {
+                    Postings other = lists[t];
+                    int position = other.advance(cursors[t], doc);
+                    cursors[t] = position;
+                    if (position >= other.size) {
+                        break candidates;
+                    }
+                    if (other.docs[position] != doc) {
+                        continue candidates;
+                    }
+                    frequency = other.frequencyAt(position);
+                    score += idf[t] * frequency * (K1 + 1) / (frequency + norm);
+                }
+                top.add(new ScoredDoc(doc, score));
+                if (top.size() > wanted) {
+                    top.poll();
+                }
+            }
+
+            List<ScoredDoc> ranked = new ArrayList<>(top);
+            ranked.sort((a, b) -> compareScored(b, a));
+            for (int i = Math.max(0, offset); i < ranked.size(); i++) {
+                ScoredDoc scored = ranked.get(i);
+                int scope = docScopes[scored.doc()];
+                hits.add(new SearchHit(docMessageIds[scored.doc()], roomScopes.get(scope), scopeKeys.get(scope), scored.score()));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+        logger.debug(() -> "Search for '" + query + "' by " + user + " returned " + hits.size() + " hits in "
+                + elapsedMicros + " us");
+        return hits;
+    }
+
+    private static int compareScored(ScoredDoc a, ScoredDoc b) {
+        int byScore = Double.compare(a.score(), b.score());
+        return byScore != 0 ? byScore : Integer.compare(a.doc(), b.doc());
+    }
+
+    private boolean[] allowedScopes(String user, String roomName, String partner) {
+        boolean[] allowed = new boolean[scopeKeys.size()];
+        if (roomName != null) {
+            Integer scope = scopeIds.get(roomScope(roomName));
+            if (scope == null) {
+                return null;
+            }
+            allowed[scope] = true;
+        } else if (partner != null) {
+            Integer scope = scopeIds.get(conversationScope(user, partner));
+            if (scope == null) {
+                return null;
+            }
+            allowed[scope] = true;
+        } else {
+            for (int scope = 0; scope < allowed.length; scope++) {
+                allowed[scope] = roomScopes.get(scope);
+            }
+            for (int scope : userScopes.getOrDefault(user, List.of())) {
+                allowed[scope] = true;
+            }
+        }
+        return allowed;
+    }
+
+    static Map<String, Integer> tokenize(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        if (text == null) {
+            return frequencies;
+        }
+        StringBuilder token = new StringBuilder();
+        int length = text.length();
+        for (int i = 0; i <= length; ) {
+            int codePoint = i < length ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (token.length() < MAX_TOKEN_LENGTH) {
+                    token.appendCodePoint(Character.toLowerCase(codePoint));
+                }
+            } else if (!token.isEmpty()) {
+                if (token.length() >= MIN_TOKEN_LENGTH) {
+                    frequencies.merge(token.toString(), 1, Integer::sum);
+                }
+                token.setLength(0);
+            }
+            i += i < length ? Character.charCount(codePoint) : 1;
+        }
+        return frequencies;
+    }
+
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return docCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public final class MessageWriteBehind {
+    private record PendingWrite(Message message, long roomId) {
+        boolean isRoomMessage() {
+            return roomId > 0;
+        }
+    }
+
+    private static final String INSERT_MESSAGE_SQL =
+            "INSERT INTO messages (id, sender, recipient, content, timestamp, file_hash, file_size) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ROOM_MESSAGE_SQL =
+            "INSERT INTO room_messages (id, sender, room_id, content, timestamp, file_hash, file_size) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final ConnectionPool pool;
+    private final LinkedBlockingQueue<PendingWrite> queue;
+    private final ConcurrentHashMap<Long, Message> pendingMessages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Message> pendingRoomMessages = new ConcurrentHashMap<>();
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final Thread flusher;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final Logger logger = Logger.getInstance();
+    private volatile boolean running = true;
+
+    public MessageWriteBehind(ConnectionPool pool) {
+        this(pool,
+                ServerConfig.getInt("CHAT_DB_FLUSH_SIZE", 500),
+                ServerConfig.getLong("CHAT_DB_FLUSH_INTERVAL_MS", 50),
+                ServerConfig.getInt("CHAT_DB_QUEUE_CAPACITY", 100_000));
+    }
+
+    public MessageWriteBehind(ConnectionPool pool, int flushSize, long flushIntervalMillis, int capacity) {
+        this.pool = pool;
+        this.flushSize = Math.max(1, flushSize);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.flusher = Thread.ofPlatform().name("message-write-behind").daemon().start(this::run);
+        logger.info(() -> "Message write-behind started with flush size " + this.flushSize
+                + " and interval " + flushIntervalMillis + " ms");
+    }
+
+    public void saveMessage(Message message) {
+        enqueue(new PendingWrite(message, 0));
+    }
+
+    public void saveRoomMessage(Message message, long roomId) {
+        enqueue(new PendingWrite(message, roomId));
+    }
+
+    private void enqueue(PendingWrite write) {
+        pendingFor(write).put(write.message().getId(), write.message());
+        closeLock.readLock().lock();
+        try {
+            if (running) {
+                queue.put(write);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        flush(List.of(write));
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(flushSize);
+        while (running) {
+            try {
+                PendingWrite first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                queue.drainTo(batch, flushSize - batch.size());
+                while (batch.size() < flushSize) {
+                    PendingWrite next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, flushSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            flush(batch);
+            batch.clear();
+        }
+        if (!batch.isEmpty()) {
+            flush(batch);
+        }
+    }
+
+    private ConcurrentHashMap<Long, Message> pendingFor(PendingWrite write) {
+        return write.isRoomMessage() ? pendingRoomMessages : pendingMessages;
+    }
+
+    public Message findPending(long id, boolean roomMessage) {
+        return (roomMessage ? pendingRoomMessages : pendingMessages).get(id);
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        try {
+            flushBatch(batch);
+        } finally {
+            for (PendingWrite write : batch) {
+                pendingFor(write).remove(write.message().getId());
+            }
+        }
+    }
+
+    private void flushBatch(List<PendingWrite> batch) {
+        long start = System.nanoTime();
+        SQLException failure = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                writeBatch(batch);
+                long elapsed = System.nanoTime() - start;
+                recordFlush(batch.size(), elapsed);
+                logger.info(() -> "Flushed " + batch.size() + " messages in " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                        + " ms, " + queue.size() + " pending");
+                return;
+            } catch (SQLException e) {
+                failure = e;
+                int failedAttempt = attempt;
+                logger.error(() -> "Message batch flush attempt " + failedAttempt + " failed: " + e.getMessage());
+            }
+        }
+        if (batch.size() > 1 && isRowFailure(failure)) {
+            logger.warn(() -> "Isolating failing rows in a batch of " + batch.size() + " messages");
+            isolateFailures(batch);
+        } else {
+            drop(batch, failure);
+        }
+    }
+
+    private void recordFlush(int size, long elapsedNanos) {
+        written.addAndGet(size);
+        batches.incrementAndGet();
+        totalFlushNanos.addAndGet(elapsedNanos);
+        lastFlushNanos.set(elapsedNanos);
+        maxFlushNanos.accumulateAndGet(elapsedNanos, Math::max);
+    }
+
+    private void isolateFailures(List<PendingWrite> batch) {
+        int middle = batch.size() / 2;
+        writeOrIsolate(batch.subList(0, middle));
+        writeOrIsolate(batch.subList(middle, batch.size()));
+    }
+
+    private void writeOrIsolate(List<PendingWrite> part) {
+        long start = System.nanoTime();
+        try {
+            writeBatch(part);
+            recordFlush(part.size(), System.nanoTime() - start);
+        } catch (SQLException e) {
+            if (part.size() > 1 && isRowFailure(e)) {
+                isolateFailures(part);
+            } else {
+                drop(part, e);
+            }
+        }
+    }
+
+    private static boolean isRowFailure(SQLException e) {
+        if (e instanceof SQLTransientConnectionException || e instanceof SQLRecoverableException) {
+            return false;
+        }
+        String state = e.getSQLState();
+        return state == null || !state.startsWith("08");
+    }
+
+    private void drop(List<PendingWrite> writes, SQLException cause) {
+        lost.addAndGet(writes.size());
+        if (writes.size() == 1) {
+            PendingWrite write = writes.getFirst();
+            logger.error(() -> "Dropped " + (write.isRoomMessage() ? "room message " : "message ") + write.message().getId()
+                    + " from " + write.message().getSender() + " after failed writes: " + cause.getMessage());
+        } else {
+            logger.error(() -> "Dropped " + writes.size() + " messages (ids " + writes.getFirst().message().getId() + " to "
+                    + writes.getLast().message().getId() + ") after " + MAX_ATTEMPTS + " failed flush attempts: "
+                    + cause.getMessage());
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            PreparedStatement messageStmt = pooled.prepareStatement(INSERT_MESSAGE_SQL);
+            PreparedStatement roomStmt = pooled.prepareStatement(INSERT_ROOM_MESSAGE_SQL);
+            try {
+                boolean hasMessages = false;
+                boolean hasRoomMessages = false;
+                for (PendingWrite write : batch) {
+                    Message message = write.message();
+                    if (!write.isRoomMessage()) {
+                        messageStmt.setLong(1, message.getId());
+                        messageStmt.setString(2, message.getSender());
+                        messageStmt.setString(3, message.getRecipient());
+                        messageStmt.setString(4, message.getContent());
+                        messageStmt.setLong(5, message.getTimestamp());
+                        setFileReference(messageStmt, message);
+                        messageStmt.addBatch();
+                        hasMessages = true;
+                    } else {
+                        roomStmt.setLong(1, message.getId());
+                        roomStmt.setString(2, message.getSender());
+                        roomStmt.setLong(3, write.roomId());
+                        roomStmt.setString(4, message.getContent());
+                        roomStmt.setLong(5, message.getTimestamp());
+                        setFileReference(roomStmt, message);
+                        roomStmt.addBatch();
+                        hasRoomMessages = true;
+                    }
+                }
+                if (hasMessages) {
+                    messageStmt.executeBatch();
+                }
+                if (hasRoomMessages) {
+                    roomStmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                messageStmt.clearBatch();
+                roomStmt.clearBatch();
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static void setFileReference(PreparedStatement pstmt, Message message) throws SQLException {
+        if (message.getFileHash() != null) {
+            pstmt.setString(6, message.getFileHash());
+            pstmt.setLong(7, message.getFileSize());
+        } else {
+            pstmt.setNull(6, Types.CHAR);
+            pstmt.setNull(7, Types.BIGINT);
+        }
+    }
+
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (int from = 0; from < remaining.size(); from += flushSize) {
+            flush(remaining.subList(from, Math.min(remaining.size(), from + flushSize)));
+        }
+        logger.info(() -> "Message write-behind stopped: " + written.get() + " written, " + lost.get() + " lost");
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getLostCount() {
+        return lost.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getLastFlushMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastFlushNanos.get());
+    }
+
+    public long getMaxFlushMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxFlushNanos.get());
+    }
+
+    public double getAverageFlushMillis() {
+        long count = batches.get();
+        return count == 0 ? 0 : totalFlushNanos.get() / (count * 1_000_000.0);
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class NioGateway {
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private final ChatServiceImpl chatService;
+    private final int maxFrameBytes;
+    private final long maxPendingBytes;
+    private final int maxPipelinedRequests;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+    private final ConcurrentLinkedQueue<GatewayConnection> interestUpdates = new ConcurrentLinkedQueue<>();
+    private final Set<GatewayConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong requestsHandled = new AtomicLong();
+    private final AtomicLong requestsFailed = new AtomicLong();
+    private final Thread selectorThread;
+    private final Logger logger = Logger.getInstance();
+    private volatile boolean running = true;
+
+    public NioGateway(ChatServiceImpl chatService, int port) throws IOException {
+        this(chatService, new InetSocketAddress(ServerConfig.getString("CHAT_GATEWAY_BIND", "127.0.0.1"), port),
+                ServerConfig.getInt("CHAT_GATEWAY_MAX_FRAME_BYTES", 8 * 1024 * 1024),
+                ServerConfig.getLong("CHAT_GATEWAY_MAX_PENDING_BYTES", 4L * 1024 * 1024),
+                ServerConfig.getInt("CHAT_GATEWAY_MAX_PIPELINED", 64));
+    }
+
+    public NioGateway(ChatServiceImpl chatService, InetSocketAddress address, int maxFrameBytes, long maxPendingBytes,
+                      int maxPipelinedRequests) throws IOException {
+        this.chatService = chatService;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxPendingBytes = maxPendingBytes;
+        this.maxPipelinedRequests = Math.max(2, maxPipelinedRequests);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(address, ACCEPT_BACKLOG);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.selectorThread = Thread.ofPlatform().name("nio-gateway").daemon().start(this::run);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.error(() -> "Gateway selector failed: " + e.getMessage());
+                return;
+            }
+            GatewayConnection pending;
+            while ((pending = interestUpdates.poll()) != null) {
+                try {
+                    pending.updateInterest();
+                } catch (CancelledKeyException e) {
+                    pending.close();
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid()) {
+                    process(key);
+                }
+            }
+        }
+    }
+
+    private void process(SelectionKey key) {
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        GatewayConnection connection = (GatewayConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                read(connection, (SocketChannel) key.channel());
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            logger.debug(() -> "Gateway connection " + connection.getRemoteAddress() + " closed: " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                GatewayConnection connection = new GatewayConnection(this, channel, maxFrameBytes, maxPendingBytes,
+                        maxPipelinedRequests);
+                connection.attach(channel.register(selector, SelectionKey.OP_READ, connection));
+                connections.add(connection);
+                accepted.incrementAndGet();
+                logger.debug(() -> "Gateway connection accepted from " + connection.getRemoteAddress());
+            }
+        } catch (IOException e) {
+            logger.warn(() -> "Gateway failed to accept a connection: " + e.getMessage());
+        }
+    }
+
+    private void read(GatewayConnection connection, SocketChannel channel) throws IOException {
+        readBuffer.clear();
+        int count = channel.read(readBuffer);
+        if (count < 0) {
+            throw new IOException("end of stream");
+        }
+        readBuffer.flip();
+        connection.receive(readBuffer);
+        connection.updateInterest();
+    }
+
+    void requestInterestUpdate(GatewayConnection connection) {
+        interestUpdates.add(connection);
+        selector.wakeup();
+    }
+
+    void handle(GatewayConnection connection, ByteBuffer request) {
+        int requestId = request.getInt();
+        byte opcode = request.get();
+        GatewayProtocol.FrameWriter response;
+        try {
+            response = GatewayProtocol.response(requestId, opcode);
+            invoke(connection, opcode, new GatewayProtocol.FrameReader(request), response);
+            requestsHandled.incrementAndGet();
+        } catch (BufferUnderflowException e) {
+            requestsFailed.incrementAndGet();
+            response = GatewayProtocol.error(requestId, opcode, "Truncated request");
+        } catch (RemoteException | RuntimeException e) {
+            requestsFailed.incrementAndGet();
+            response = GatewayProtocol.error(requestId, opcode, e.getMessage());
+        }
+        connection.send(response.toFrame(), false);
+    }
+
+    private void invoke(GatewayConnection connection, byte opcode, GatewayProtocol.FrameReader in,
+                        GatewayProtocol.FrameWriter out) throws RemoteException {
+        switch (opcode) {
+            case GatewayProtocol.SIGN_IN -> out.writeBoolean(signIn(connection, in.readString(), in.readString()));
+            case GatewayProtocol.SIGN_UP -> chatService.signUp(in.readString(), in.readString(), in.readString(), in.readString());
+            case GatewayProtocol.PING -> out.writeLong(System.currentTimeMillis());
+            case GatewayProtocol.SIGN_OUT -> signOut(connection, requireUser(connection));
+            case GatewayProtocol.SEND_MESSAGE -> chatService.sendMessage(requireUser(connection), in.readString(), in.readString());
+            case GatewayProtocol.SEND_ROOM_MESSAGE -> chatService.sendMessageToRoom(requireUser(connection), in.readString(), in.readString());
+            case GatewayProtocol.ADD_ROOM -> {
+                requireUser(connection);
+                chatService.addChatRoom(in.readString());
+            }
+            case GatewayProtocol.JOIN_ROOM -> out.writeBoolean(chatService.joinRoom(requireUser(connection), in.readString()));
+            case GatewayProtocol.LEAVE_ROOM -> out.writeBoolean(chatService.leaveRoom(requireUser(connection), in.readString()));
+            case GatewayProtocol.IS_IN_ROOM -> out.writeBoolean(chatService.isUserInRoom(requireUser(connection), in.readString()));
+            case GatewayProtocol.MESSAGE_HISTORY -> out.writeMessages(chatService.getMessageHistory(requireUser(connection)));
+            case GatewayProtocol.CONVERSATION_HISTORY -> out.writeMessages(chatService.getConversationHistory(
+                    requireUser(connection), in.readString(), in.readLong(), in.readInt()));
+            case GatewayProtocol.ROOM_HISTORY -> {
+                requireUser(connection);
+                out.writeMessages(chatService.getRoomHistory(in.readString(), in.readLong(), in.readInt()));
+            }
+            case GatewayProtocol.STREAM_HISTORY -> out.writeLong(chatService.streamMessageHistory(requireUser(connection), in.readInt()));
+            case GatewayProtocol.SEARCH_MESSAGES -> out.writeMessages(chatService.searchMessages(requireUser(connection),
+                    in.readString(), in.readString(), in.readString(), in.readInt(), in.readInt()));
+            case GatewayProtocol.ROOM_CLIENTS -> {
+                requireUser(connection);
+                out.writeStrings(chatService.getRoomClients(in.readString()));
+            }
+            case GatewayProtocol.ONLINE_USERS -> {
+                requireUser(connection);
+                out.writeStrings(chatService.getOnlineUsers());
+            }
+            case GatewayProtocol.PRESENCE_SNAPSHOT -> {
+                requireUser(connection);
+                PresenceSnapshot snapshot = chatService.getPresenceSnapshot();
+                out.writeLong(snapshot.getVersion()).writeStrings(snapshot.getOnlineUsers());
+            }
+            case GatewayProtocol.AVAILABLE_ROOMS -> {
+                requireUser(connection);
+                out.writeStrings(chatService.getAvailableRooms());
+            }
+            case GatewayProtocol.SEND_FILE -> chatService.sendFile(requireUser(connection), in.readString(), in.readBytes(), in.readString());
+            case GatewayProtocol.SEND_ROOM_FILE -> chatService.sendFileToRoom(requireUser(connection), in.readString(), in.readBytes(), in.readString());
+            case GatewayProtocol.BEGIN_UPLOAD -> out.writeString(chatService.beginUpload(requireUser(connection), in.readString(), in.readLong()));
+            case GatewayProtocol.UPLOAD_CHUNK -> out.writeLong(chatService.uploadChunk(requireUser(connection),
+                    in.readString(), in.readLong(), in.readBytes(), in.readLong()));
+            case GatewayProtocol.UPLOAD_OFFSET -> out.writeLong(chatService.getUploadOffset(requireUser(connection), in.readString()));
+            case GatewayProtocol.COMMIT_UPLOAD -> out.writeBoolean(chatService.commitUpload(requireUser(connection),
+                    in.readString(), in.readString(), in.readBoolean()));
+            case GatewayProtocol.ABORT_UPLOAD -> chatService.abortUpload(requireUser(connection), in.readString());
+            case GatewayProtocol.DOWNLOAD_FILE -> out.writeBytes(chatService.downloadFile(requireUser(connection),
+                    in.readString(), in.readLong(), in.readInt()));
+            default -> throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+    }
+
+    private static String requireUser(GatewayConnection connection) {
+        String username = connection.getUsername();
+        if (username == null) {
+            throw new IllegalStateException("Not signed in");
+        }
+        return username;
+    }
+
+    private boolean signIn(GatewayConnection connection, String username, String password) throws RemoteException {
+        if (connection.getUsername() != null) {
+            throw new IllegalStateException("Already signed in as " + connection.getUsername());
+        }
+        if (!chatService.signIn(username, password)) {
+            return false;
+        }
+        GatewayCallback callback = new GatewayCallback(connection);
+        connection.bind(username, callback);
+        chatService.registerCallback(username, callback);
+        logger.info(() -> "Gateway session for " + username + " bound to " + connection.getRemoteAddress());
+        return true;
+    }
+
+    private void signOut(GatewayConnection connection, String username) throws RemoteException {
+        GatewayCallback callback = connection.getCallback();
+        connection.unbind();
+        chatService.releaseCallback(username, callback);
+    }
+
+    void onClosed(GatewayConnection connection) {
+        connections.remove(connection);
+        String username = connection.getUsername();
+        GatewayCallback callback = connection.getCallback();
+        if (username == null) {
+            return;
+        }
+        connection.unbind();
+        Thread.startVirtualThread(() -> {
+            try {
+                chatService.releaseCallback(username, callback);
+            } catch (RemoteException e) {
+                logger.warn(() -> "Failed to release gateway session for " + username + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.socket().getLocalSocketAddress();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getRequestCount() {
+        return requestsHandled.get();
+    }
+
+    public long getFailedRequestCount() {
+        return requestsFailed.get();
+    }
+
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (GatewayConnection connection : connections) {
+            connection.close();
+        }
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.warn(() -> "Error closing gateway: " + e.getMessage());
+        }
+        logger.info(() -> "Gateway closed after " + accepted.get() + " connections and " + requestsHandled.get() + " requests");
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public final class PayloadCodec {
+    public static final int NONE = 0;
+    public static final int DEFLATE = 1;
+    public static final int SUPPORTED_CODECS = 1 << DEFLATE;
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int MAX_OVERHEAD = 5;
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int POOL_SIZE = 32;
+    private static final ArrayBlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final int codec;
+    private final int threshold;
+    private final Stats stats = new Stats();
+
+    public PayloadCodec(int codec, int threshold) {
+        this.codec = codec;
+        this.threshold = Math.max(0, threshold);
+    }
+
+    public int getCodec() {
+        return codec;
+    }
+
+    public boolean isEnabled() {
+        return codec == DEFLATE;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    public byte[] pack(byte[] data) {
+        if (!isEnabled()) {
+            return data;
+        }
+        byte[] deflated = null;
+        long cpu = 0;
+        if (data.length >= threshold) {
+            long start = cpuTime();
+            deflated = deflate(data);
+            cpu = cpuTime() - start;
+        }
+        if (deflated == null) {
+            stats.record(data.length, data.length + 1, cpu, false);
+            byte[] packed = new byte[data.length + 1];
+            packed[0] = RAW;
+            System.arraycopy(data, 0, packed, 1, data.length);
+            return packed;
+        }
+        stats.record(data.length, deflated.length + 5, cpu, true);
+        return ByteBuffer.allocate(deflated.length + 5).put(DEFLATED).putInt(data.length).put(deflated).array();
+    }
+
+    public byte[] unpack(byte[] packed, int maxLength) throws IOException {
+        if (!isEnabled() || packed == null) {
+            return packed;
+        }
+        if (packed.length == 0) {
+            throw new IOException("Empty compressed payload");
+        }
+        if (packed[0] == RAW) {
+            if (packed.length - 1 > maxLength) {
+                throw new IOException("Payload of " + (packed.length - 1) + " bytes exceeds " + maxLength);
+            }
+            stats.record(packed.length - 1, packed.length, 0, false);
+            return Arrays.copyOfRange(packed, 1, packed.length);
+        }
+        if (packed[0] != DEFLATED || packed.length < 5) {
+            throw new IOException("Unknown payload encoding " + packed[0]);
+        }
+        int length = ByteBuffer.wrap(packed, 1, 4).getInt();
+        if (length > maxLength) {
+            throw new IOException("Compressed payload claims " + length + " bytes, more than " + maxLength);
+        }
+        long start = cpuTime();
+        byte[] data = inflate(packed, 5, packed.length - 5, length);
+        stats.record(length, packed.length, cpuTime() - start, true);
+        return data;
+    }
+
+    public Message compress(Message message) {
+        String content = message.getContent();
+        if (!isEnabled() || message.isFile() || content == null || content.length() < threshold) {
+            return message;
+        }
+        long start = cpuTime();
+        byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = deflate(raw);
+        long cpu = cpuTime() - start;
+        if (deflated == null) {
+            stats.record(raw.length, raw.length, cpu, false);
+            return message;
+        }
+        stats.record(raw.length, deflated.length, cpu, true);
+        return message.withCompressedContent(deflated, raw.length);
+    }
+
+    public void recordShared(Message compressed) {
+        stats.record(compressed.getContentLength(), compressed.getCompressedContentLength(), 0, true);
+    }
+
+    static String inflateText(byte[] deflated, int length) {
+        try {
+            return new String(inflate(deflated, 0, deflated.length, length), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt compressed message content", e);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[data.length];
+            int length = 0;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return deflater.finished() ? Arrays.copyOf(out, length) : null;
+        } finally {
+            deflater.reset();
+            if (!DEFLATERS.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int offset, int length, int rawLength) throws IOException {
+        if (rawLength < 0) {
+            throw new IOException("Invalid compressed payload length " + rawLength);
+        }
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(input, offset, length);
+            byte[] out = new byte[rawLength];
+            int written = 0;
+            while (written < rawLength && !inflater.finished()) {
+                int count = inflater.inflate(out, written, rawLength - written);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                written += count;
+            }
+            if (written != rawLength) {
+                throw new IOException("Compressed payload ended after " + written + " of " + rawLength + " bytes");
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload", e);
+        } finally {
+            inflater.reset();
+            if (!INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static long cpuTime() {
+        long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        return cpu >= 0 ? cpu : System.nanoTime();
+    }
+
+    public static final class Stats {
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong wireBytes = new AtomicLong();
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicLong compressed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+
+        void record(long raw, long wire, long cpu, boolean wasCompressed) {
+            rawBytes.addAndGet(raw);
+            wireBytes.addAndGet(wire);
+            cpuNanos.addAndGet(cpu);
+            (wasCompressed ? compressed : skipped).incrementAndGet();
+        }
+
+        public long getRawBytes() {
+            return rawBytes.get();
+        }
+
+        public long getWireBytes() {
+            return wireBytes.get();
+        }
+
+        public double getRatio() {
+            long wire = wireBytes.get();
+            return wire == 0 ? 1.0 : rawBytes.get() / (double) wire;
+        }
+
+        public long getCpuMillis() {
+            return cpuNanos.get() / 1_000_000;
+        }
+
+        public long getCompressedCount() {
+            return compressed.get();
+        }
+
+        public long getSkippedCount() {
+            return skipped.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d -> %d bytes (ratio %.2f), %d compressed, %d skipped, %d ms CPU",
+                    rawBytes.get(), wireBytes.get(), getRatio(), compressed.get(), skipped.get(), getCpuMillis());
+        }
+    }
+}
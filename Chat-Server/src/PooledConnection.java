@@ -0,0 +1,109 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public final class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statementCache;
+    private volatile long borrowedAt;
+    private volatile long returnedAt;
+    private volatile String borrower;
+    private volatile boolean leakReported;
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        this.returnedAt = System.nanoTime();
+        this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "+keys:" + sql : sql;
+        PreparedStatement statement = statementCache.get(key);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql, autoGeneratedKeys);
+            statementCache.put(key, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    public Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    void markBorrowed(String borrower) {
+        this.borrower = borrower;
+        this.borrowedAt = System.nanoTime();
+        this.leakReported = false;
+    }
+
+    void markReturned() {
+        this.returnedAt = System.nanoTime();
+    }
+
+    boolean markLeakReported() {
+        if (leakReported) {
+            return false;
+        }
+        leakReported = true;
+        return true;
+    }
+
+    String getBorrower() {
+        return borrower;
+    }
+
+    long getBorrowedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - borrowedAt);
+    }
+
+    long getIdleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - returnedAt);
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            Logger.getInstance().warn("Failed to close cached statement: " + e.getMessage());
+        }
+    }
+
+    void closePhysical() {
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Logger.getInstance().warn("Failed to close database connection: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.release(this);
+    }
+}
@@ -0,0 +1,109 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+public final class PresenceBroadcaster {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("presence-broadcast").factory());
+    private final long timeoutMillis;
+    private final int maxConsecutiveTimeouts;
+    private final BiConsumer<String, ClientCallback> evictionHandler;
+    private final ConcurrentHashMap<String, AtomicInteger> consecutiveTimeouts = new ConcurrentHashMap<>();
+    private final AtomicLong notificationsSent = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Logger logger = Logger.getInstance();
+
+    public PresenceBroadcaster(BiConsumer<String, ClientCallback> evictionHandler) {
+        this(ServerConfig.getLong("CHAT_PRESENCE_TIMEOUT_MS", 2000),
+                ServerConfig.getInt("CHAT_PRESENCE_MAX_TIMEOUTS", 3),
+                evictionHandler);
+    }
+
+    public PresenceBroadcaster(long timeoutMillis, int maxConsecutiveTimeouts,
+                               BiConsumer<String, ClientCallback> evictionHandler) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxConsecutiveTimeouts = maxConsecutiveTimeouts;
+        this.evictionHandler = evictionHandler;
+    }
+
+    public void broadcast(Map<String, ClientCallback> recipients, long version, String username, boolean online) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        dispatcher.execute(() -> deliver(recipients, version, username, online));
+    }
+
+    private void deliver(Map<String, ClientCallback> recipients, long version, String username, boolean online) {
+        long start = System.nanoTime();
+        Map<String, Future<?>> pending = new HashMap<>();
+        recipients.forEach((recipient, callback) -> pending.put(recipient, executor.submit(() -> {
+            callback.onPresenceDelta(version, username, online);
+            return null;
+        })));
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<String> evicted = new ArrayList<>();
+        for (Map.Entry<String, Future<?>> entry : pending.entrySet()) {
+            String recipient = entry.getKey();
+            try {
+                entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                notificationsSent.incrementAndGet();
+                consecutiveTimeouts.remove(recipient);
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                timeouts.incrementAndGet();
+                int count = consecutiveTimeouts.computeIfAbsent(recipient, k -> new AtomicInteger()).incrementAndGet();
+                logger.warn(() -> "Status notification to " + recipient + " timed out (" + count + " in a row)");
+                if (count >= maxConsecutiveTimeouts) {
+                    evicted.add(recipient);
+                }
+            } catch (ExecutionException e) {
+                failures.incrementAndGet();
+                Throwable cause = e.getCause() instanceof RemoteException ? e.getCause() : e;
+                logger.error(() -> "Failed to notify user " + recipient + " about status change: " + cause.getMessage());
+                evicted.add(recipient);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.values().forEach(future -> future.cancel(true));
+                return;
+            }
+        }
+
+        logger.info(() -> "Status change " + version + " of " + username + " broadcast to " + pending.size() + " clients in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        for (String recipient : evicted) {
+            consecutiveTimeouts.remove(recipient);
+            evictionHandler.accept(recipient, recipients.get(recipient));
+        }
+    }
+
+    public void forget(String username) {
+        consecutiveTimeouts.remove(username);
+    }
+
+    public long getNotificationsSent() {
+        return notificationsSent.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+}
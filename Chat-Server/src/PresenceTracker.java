@@ -0,0 +1,20 @@
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+public final class PresenceTracker {
+    private final Set<String> onlineUsers = new LinkedHashSet<>();
+    private long version;
+
+    public synchronized long update(String username, boolean online) {
+        boolean changed = online ? onlineUsers.add(username) : onlineUsers.remove(username);
+        return changed ? ++version : 0;
+    }
+
+    public synchronized PresenceSnapshot snapshot() {
+        return new PresenceSnapshot(version, onlineUsers.toArray(new String[0]));
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+}
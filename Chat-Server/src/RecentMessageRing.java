@@ -0,0 +1,98 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+public final class RecentMessageRing {
+    private final int capacity;
+    private final ArrayDeque<Message> messages;
+    private boolean complete;
+
+    public RecentMessageRing(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.messages = new ArrayDeque<>(this.capacity);
+    }
+
+    public synchronized void add(Message message) {
+        if (messages.isEmpty() || messages.getLast().getId() < message.getId()) {
+            messages.addLast(message);
+        } else {
+            insertInOrder(message);
+        }
+        if (messages.size() > capacity) {
+            messages.removeFirst();
+            complete = false;
+        }
+    }
+
+    private void insertInOrder(Message message) {
+        ArrayDeque<Message> newer = new ArrayDeque<>();
+        while (!messages.isEmpty() && messages.getLast().getId() > message.getId()) {
+            newer.addFirst(messages.removeLast());
+        }
+        if (messages.isEmpty() || messages.getLast().getId() != message.getId()) {
+            messages.addLast(message);
+        }
+        messages.addAll(newer);
+    }
+
+    public synchronized void markComplete() {
+        complete = true;
+    }
+
+    public synchronized List<Message> page(long beforeId, int limit) {
+        List<Message> page = collect(beforeId, limit);
+        return page.size() == limit || complete ? page : null;
+    }
+
+    public synchronized List<Message> merge(List<Message> olderPage, long beforeId, int limit, boolean reachedStart) {
+        long oldestKnown = messages.isEmpty() ? Long.MAX_VALUE : messages.getFirst().getId();
+        boolean contiguous = messages.isEmpty()
+                ? beforeId <= 0
+                : beforeId == oldestKnown || (!olderPage.isEmpty() && olderPage.getLast().getId() >= oldestKnown);
+        boolean seededAll = contiguous;
+        for (int i = olderPage.size() - 1; contiguous && i >= 0; i--) {
+            Message message = olderPage.get(i);
+            if (message.getId() < oldestKnown) {
+                if (messages.size() >= capacity) {
+                    seededAll = false;
+                    break;
+                }
+                messages.addFirst(message);
+                oldestKnown = message.getId();
+            }
+        }
+        if (reachedStart && seededAll) {
+            complete = true;
+        }
+
+        TreeMap<Long, Message> byId = new TreeMap<>();
+        for (Message message : olderPage) {
+            byId.put(message.getId(), message);
+        }
+        for (Message message : collect(beforeId, limit)) {
+            byId.put(message.getId(), message);
+        }
+        List<Message> merged = new ArrayList<>(byId.values());
+        return new ArrayList<>(merged.subList(Math.max(0, merged.size() - limit), merged.size()));
+    }
+
+    private List<Message> collect(long beforeId, int limit) {
+        List<Message> page = new ArrayList<>(limit);
+        Iterator<Message> newestFirst = messages.descendingIterator();
+        while (newestFirst.hasNext() && page.size() < limit) {
+            Message message = newestFirst.next();
+            if (beforeId <= 0 || message.getId() < beforeId) {
+                page.add(message);
+            }
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+}
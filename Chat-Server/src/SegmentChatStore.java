@@ -0,0 +1,963 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+
+public final class SegmentChatStore implements ChatStore {
+    private static final byte USER_RECORD = 1;
+    private static final byte ROOM_RECORD = 2;
+    private static final byte ROOM_DELETED_RECORD = 3;
+    private static final byte MEMBER_RECORD = 4;
+    private static final byte MESSAGE_RECORD = 5;
+    private static final byte ROOM_MESSAGE_RECORD = 6;
+
+    // length (type + payload), CRC32C over type + payload, type
+    private static final int HEADER_SIZE = 9;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACT_SUFFIX = ".compact";
+    private static final long DEAD = -1;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    private static final class Segment {
+        private final long number;
+        private final Path path;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int writePosition;
+        private long deadBytes;
+        private boolean dirty;
+
+        private Segment(long number, Path path) {
+            this.number = number;
+            this.path = path;
+        }
+    }
+
+    private static final class IdIndex {
+        private long[] ids = new long[1024];
+        private long[] locations = new long[1024];
+        private int size;
+
+        int add(long id, long location) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1));
+                locations = Arrays.copyOf(locations, ids.length);
+            }
+            ids[size] = id;
+            locations[size] = location;
+            return size++;
+        }
+
+        int find(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            return index >= 0 ? index : -1;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size + (size >> 1));
+            }
+            values[size++] = value;
+        }
+    }
+
+    private record StoredUser(String username, String password, String firstName, String lastName) {
+    }
+
+    private record Relocation(IdIndex index, int position, long location) {
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int compactPercent;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, StoredUser> users = new HashMap<>();
+    private final Map<String, Long> roomIds = new LinkedHashMap<>();
+    private final Map<Long, String> roomNames = new HashMap<>();
+    private final Map<Long, Set<String>> roomMembers = new HashMap<>();
+    private final IdIndex directIndex = new IdIndex();
+    private final IdIndex roomIndex = new IdIndex();
+    private final Map<String, IntList> conversations = new HashMap<>();
+    private final Map<String, IntList> userMessages = new HashMap<>();
+    private final Map<Long, IntList> roomMessages = new HashMap<>();
+    private final ScheduledExecutorService maintenance;
+    private final Logger logger = Logger.getInstance();
+    private long lastMessageId;
+    private long lastRoomMessageId;
+    private long lastRoomId;
+    private long compactions;
+    private boolean closed;
+
+    public SegmentChatStore() {
+        this(Paths.get(ServerConfig.getString("CHAT_STORE_DIR", "./chat-store")),
+                ServerConfig.getInt("CHAT_SEGMENT_SIZE_MB", 64),
+                ServerConfig.getLong("CHAT_STORE_SYNC_INTERVAL_MS", 200),
+                ServerConfig.getLong("CHAT_STORE_COMPACT_INTERVAL_MS", 60_000),
+                ServerConfig.getInt("CHAT_STORE_COMPACT_PERCENT", 50));
+    }
+
+    public SegmentChatStore(Path directory, int segmentSizeMb, long syncIntervalMillis, long compactIntervalMillis, int compactPercent) {
+        this.directory = directory;
+        this.segmentSize = Math.max(1, Math.min(segmentSizeMb, 1024)) * 1024 * 1024;
+        this.compactPercent = Math.max(1, Math.min(compactPercent, 100));
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open segment store in " + directory, e);
+        }
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable ->
+                Thread.ofPlatform().name("segment-store-maintenance").daemon().unstarted(runnable));
+        maintenance.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::compact, compactIntervalMillis, compactIntervalMillis, TimeUnit.MILLISECONDS);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.info(() -> "Segment store opened in " + directory + ": " + segments.size() + " segments, "
+                + directIndex.size + " messages, " + roomIndex.size + " room messages, recovered in " + elapsedMillis + " ms");
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(COMPACT_SUFFIX)) {
+                    Files.delete(path);
+                    logger.warn(() -> "Removed unfinished compaction output " + name);
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort(null);
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            String name = path.getFileName().toString();
+            long number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            boolean active = i == paths.size() - 1;
+            Segment segment = openSegment(number, path, active);
+            segments.add(segment);
+            replay(segment, segments.size() - 1, active);
+        }
+        if (segments.isEmpty()) {
+            segments.add(openSegment(1, segmentPath(1), true));
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private Segment openSegment(long number, Path path, boolean active) throws IOException {
+        Segment segment = new Segment(number, path);
+        segment.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = active ? Math.max(segment.channel.size(), segmentSize) : segment.channel.size();
+        segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return segment;
+    }
+
+    private void replay(Segment segment, int slot, boolean active) {
+        MappedByteBuffer buffer = segment.buffer;
+        int limit = buffer.capacity();
+        int position = 0;
+        boolean corrupt = false;
+        while (position + HEADER_SIZE <= limit) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < 1 || position + 8L + length > limit || !checksumMatches(buffer, position, length)) {
+                corrupt = true;
+                break;
+            }
+            apply(buffer.get(position + 8), buffer.slice(position + HEADER_SIZE, length - 1),
+                    location(slot, position), 8 + length);
+            position += 8 + length;
+        }
+        segment.writePosition = position;
+        if (corrupt) {
+            int recovered = position;
+            if (active) {
+                for (int offset = position; offset < limit; offset++) {
+                    buffer.put(offset, (byte) 0);
+                }
+                buffer.force();
+                logger.warn(() -> "Truncated torn write in " + segment.path.getFileName() + " at offset " + recovered);
+            } else {
+                logger.error(() -> "Corrupt record in sealed segment " + segment.path.getFileName() + " at offset "
+                        + recovered + ", later records in this segment are skipped");
+            }
+        }
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + 8, length));
+        return (int) crc.getValue() == buffer.getInt(position + 4);
+    }
+
+    private static long location(int slot, int offset) {
+        return ((long) slot << 32) | offset;
+    }
+
+    private void apply(byte type, ByteBuffer payload, long location, int recordSize) {
+        switch (type) {
+            case USER_RECORD -> {
+                StoredUser user = new StoredUser(readString(payload), readString(payload), readString(payload), readString(payload));
+                users.put(user.username(), user);
+            }
+            case ROOM_RECORD -> {
+                long roomId = payload.getLong();
+                String name = readString(payload);
+                roomIds.put(name, roomId);
+                roomNames.put(roomId, name);
+                lastRoomId = Math.max(lastRoomId, roomId);
+            }
+            case ROOM_DELETED_RECORD -> dropRoom(payload.getLong());
+            case MEMBER_RECORD -> {
+                long roomId = payload.getLong();
+                if (roomNames.containsKey(roomId)) {
+                    roomMembers.computeIfAbsent(roomId, k -> new HashSet<>()).add(readString(payload));
+                }
+            }
+            case MESSAGE_RECORD -> {
+                long id = payload.getLong();
+                payload.getLong();
+                String sender = readString(payload);
+                String recipient = readString(payload);
+                indexMessage(id, sender, recipient, location);
+            }
+            case ROOM_MESSAGE_RECORD -> {
+                long id = payload.getLong();
+                payload.getLong();
+                long roomId = payload.getLong();
+                if (roomNames.containsKey(roomId)) {
+                    indexRoomMessage(id, roomId, location);
+                } else {
+                    segments.get((int) (location >>> 32)).deadBytes += recordSize;
+                }
+            }
+            default -> logger.warn("Skipping record of unknown type " + type);
+        }
+    }
+
+    private void indexMessage(long id, String sender, String recipient, long location) {
+        int index = directIndex.add(id, location);
+        conversations.computeIfAbsent(conversationKey(sender, recipient), k -> new IntList()).add(index);
+        userMessages.computeIfAbsent(sender, k -> new IntList()).add(index);
+        if (!sender.equals(recipient)) {
+            userMessages.computeIfAbsent(recipient, k -> new IntList()).add(index);
+        }
+        lastMessageId = Math.max(lastMessageId, id);
+    }
+
+    private static String conversationKey(String user, String partner) {
+        return user.compareTo(partner) <= 0 ? user + "|" + partner : partner + "|" + user;
+    }
+
+    private void indexRoomMessage(long id, long roomId, long location) {
+        roomMessages.computeIfAbsent(roomId, k -> new IntList()).add(roomIndex.add(id, location));
+        lastRoomMessageId = Math.max(lastRoomMessageId, id);
+    }
+
+    private void dropRoom(long roomId) {
+        String name = roomNames.remove(roomId);
+        if (name == null) {
+            return;
+        }
+        roomIds.remove(name);
+        roomMembers.remove(roomId);
+        IntList messages = roomMessages.remove(roomId);
+        if (messages != null) {
+            for (int i = 0; i < messages.size; i++) {
+                int index = messages.values[i];
+                long location = roomIndex.locations[index];
+                Segment segment = segments.get((int) (location >>> 32));
+                segment.deadBytes += 8 + segment.buffer.getInt((int) location);
+                roomIndex.locations[index] = DEAD;
+            }
+        }
+    }
+
+    private long append(byte type, byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Segment store is closed");
+        }
+        int recordSize = HEADER_SIZE + payload.length;
+        if (recordSize > segmentSize) {
+            throw new IOException("Record of " + recordSize + " bytes exceeds segment size");
+        }
+        Segment active = segments.getLast();
+        if (active.writePosition + recordSize > active.buffer.capacity()) {
+            active = rollSegment(active);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+        int offset = active.writePosition;
+        MappedByteBuffer buffer = active.buffer;
+        buffer.put(offset + 8, type);
+        buffer.put(offset + HEADER_SIZE, payload);
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        buffer.putInt(offset, payload.length + 1);
+        active.writePosition = offset + recordSize;
+        active.dirty = true;
+        return location(segments.size() - 1, offset);
+    }
+
+    private Segment rollSegment(Segment sealed) throws IOException {
+        sealed.buffer.force();
+        sealed.dirty = false;
+        long number = sealed.number + 1;
+        Segment next = openSegment(number, segmentPath(number), true);
+        segments.add(next);
+        logger.info(() -> "Sealed " + sealed.path.getFileName() + ", writing to " + next.path.getFileName());
+        return next;
+    }
+
+    private void sync() {
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                if (segment.dirty) {
+                    segment.dirty = false;
+                    segment.buffer.force();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error(() -> "Failed to sync segment store: " + e.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void compact() {
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < segments.size() - 1; slot++) {
+                Segment segment = segments.get(slot);
+                if (segment.writePosition > 0 && segment.deadBytes * 100 >= (long) segment.writePosition * compactPercent) {
+                    compactSegment(segment, slot);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error(() -> "Segment compaction failed: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactSegment(Segment segment, int slot) throws IOException {
+        long start = System.nanoTime();
+        int before = segment.writePosition;
+        Path temp = segment.path.resolveSibling(segment.path.getFileName() + COMPACT_SUFFIX);
+        Files.deleteIfExists(temp);
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean installed = false;
+        try {
+            MappedByteBuffer target = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(1, before - segment.deadBytes));
+            MappedByteBuffer source = segment.buffer;
+            List<Relocation> relocations = new ArrayList<>();
+            int position = 0;
+            int written = 0;
+            while (position < before) {
+                int length = source.getInt(position);
+                int recordSize = 8 + length;
+                if (isLive(source.get(position + 8), source.slice(position + HEADER_SIZE, length - 1))) {
+                    if (written + recordSize > target.capacity()) {
+                        target = channel.map(FileChannel.MapMode.READ_WRITE, 0, written + (long) (before - position));
+                    }
+                    target.put(written, source, position, recordSize);
+                    Relocation relocation = relocation(source.get(position + 8), source.getLong(position + HEADER_SIZE),
+                            location(slot, written));
+                    if (relocation != null) {
+                        relocations.add(relocation);
+                    }
+                    written += recordSize;
+                }
+                position += recordSize;
+            }
+            target.force();
+            channel.truncate(written);
+            MappedByteBuffer compacted = channel.map(FileChannel.MapMode.READ_WRITE, 0, written);
+            Files.move(temp, segment.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            installed = true;
+
+            FileChannel previous = segment.channel;
+            segment.channel = channel;
+            segment.buffer = compacted;
+            segment.writePosition = written;
+            segment.deadBytes = 0;
+            for (Relocation relocation : relocations) {
+                relocation.index().locations[relocation.position()] = relocation.location();
+            }
+            compactions++;
+            closeQuietly(previous);
+            int after = written;
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            logger.info(() -> "Compacted " + segment.path.getFileName() + " from " + before + " to " + after + " bytes in "
+                    + elapsedMillis + " ms");
+        } finally {
+            if (!installed) {
+                closeQuietly(channel);
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn(() -> "Failed to close segment channel: " + e.getMessage());
+        }
+    }
+
+    private boolean isLive(byte type, ByteBuffer payload) {
+        return switch (type) {
+            case ROOM_RECORD, MEMBER_RECORD -> roomNames.containsKey(payload.getLong());
+            case ROOM_MESSAGE_RECORD -> {
+                long id = payload.getLong();
+                int index = roomIndex.find(id);
+                yield index >= 0 && roomIndex.locations[index] != DEAD;
+            }
+            default -> true;
+        };
+    }
+
+    private Relocation relocation(byte type, long id, long location) {
+        IdIndex index = type == MESSAGE_RECORD ? directIndex : type == ROOM_MESSAGE_RECORD ? roomIndex : null;
+        if (index == null) {
+            return null;
+        }
+        int position = index.find(id);
+        return position >= 0 ? new Relocation(index, position, location) : null;
+    }
+
+    private Message readMessage(long location, boolean roomMessage) {
+        Segment segment = segments.get((int) (location >>> 32));
+        int offset = (int) location;
+        int length = segment.buffer.getInt(offset);
+        ByteBuffer payload = segment.buffer.slice(offset + HEADER_SIZE, length - 1);
+        long id = payload.getLong();
+        long timestamp = payload.getLong();
+        Message message;
+        if (roomMessage) {
+            String roomName = roomNames.get(payload.getLong());
+            String sender = readString(payload);
+            message = new Message(sender, roomName, readString(payload), timestamp);
+            message.setRoomMessage(true);
+        } else {
+            String sender = readString(payload);
+            String recipient = readString(payload);
+            message = new Message(sender, recipient, readString(payload), timestamp);
+        }
+        message.setId(id);
+        if (payload.hasRemaining()) {
+            message.setFileHash(readString(payload));
+            message.setFileSize(payload.getLong());
+        }
+        return message;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeFileReference(DataOutputStream out, Message message) throws IOException {
+        if (message.getFileHash() != null) {
+            writeString(out, message.getFileHash());
+            out.writeLong(message.getFileSize());
+        }
+    }
+
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] payload(PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public boolean addUser(User user) {
+        lock.writeLock().lock();
+        try {
+            if (users.containsKey(user.getUsername())) {
+                logger.error(() -> "Failed to add user " + user.getUsername() + ": username already exists");
+                return false;
+            }
+            append(USER_RECORD, payload(out -> {
+                writeString(out, user.getUsername());
+                writeString(out, user.getPassword());
+                writeString(out, user.getFirstName());
+                writeString(out, user.getLastName());
+            }));
+            users.put(user.getUsername(), new StoredUser(user.getUsername(), user.getPassword(), user.getFirstName(), user.getLastName()));
+            logger.info(() -> "New user registered successfully: " + user.getUsername());
+            return true;
+        } catch (IOException e) {
+            logger.error(() -> "Failed to add user " + user.getUsername() + ": " + e.getMessage());
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public User getUser(String username) {
+        StoredUser stored;
+        lock.readLock().lock();
+        try {
+            stored = users.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (stored == null) {
+            logger.warn(() -> "User not found in store: " + username);
+            return null;
+        }
+        return UserFactory.createUser("regular", stored.username(), stored.password(), stored.firstName(), stored.lastName());
+    }
+
+    @Override
+    public boolean authenticateUser(String username, String password) {
+        lock.readLock().lock();
+        try {
+            StoredUser stored = users.get(username);
+            if (stored == null) {
+                logger.warn(() -> "Authentication attempt for non-existent user: " + username);
+                return false;
+            }
+            boolean authenticated = stored.password().equals(password);
+            if (authenticated) {
+                logger.info(() -> "User authenticated successfully: " + username);
+            } else {
+                logger.warn(() -> "Failed authentication attempt for user: " + username);
+            }
+            return authenticated;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveMessage(Message message) {
+        lock.writeLock().lock();
+        try {
+            long id = lastMessageId + 1;
+            long location = append(MESSAGE_RECORD, payload(out -> {
+                out.writeLong(id);
+                out.writeLong(message.getTimestamp());
+                writeString(out, message.getSender());
+                writeString(out, message.getRecipient());
+                writeString(out, message.getContent());
+                writeFileReference(out, message);
+            }));
+            message.setId(id);
+            indexMessage(id, message.getSender(), message.getRecipient(), location);
+        } catch (IOException e) {
+            logger.error(() -> "Failed to save message: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getMessageHistory(String signedInUser) {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            IntList list = userMessages.get(signedInUser);
+            for (int i = 0; list != null && i < list.size; i++) {
+                messages.add(readMessage(directIndex.locations[list.values[i]], false));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        logger.info(() -> "Retrieved " + messages.size() + " messages for user " + signedInUser);
+        return messages;
+    }
+
+    @Override
+    public int streamMessageHistory(String signedInUser, int fetchSize, Predicate<List<Message>> chunkConsumer) {
+        int chunkSize = Math.max(1, fetchSize);
+        int total = 0;
+        while (true) {
+            List<Message> chunk = new ArrayList<>(chunkSize);
+            lock.readLock().lock();
+            try {
+                IntList list = userMessages.get(signedInUser);
+                int end = list == null ? 0 : Math.min(list.size, total + chunkSize);
+                for (int i = total; i < end; i++) {
+                    chunk.add(readMessage(directIndex.locations[list.values[i]], false));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            total += chunk.size();
+            if (chunk.size() < chunkSize) {
+                chunkConsumer.test(chunk);
+                break;
+            }
+            if (!chunkConsumer.test(chunk)) {
+                logger.warn("History stream for " + signedInUser + " aborted after " + total + " messages");
+                return total;
+            }
+        }
+        logger.info("Streamed " + total + " messages for user " + signedInUser);
+        return total;
+    }
+
+    @Override
+    public List<Message> getConversationPage(String user, String partner, long beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = page(conversations.get(conversationKey(user, partner)),
+                    directIndex, beforeId, limit, false);
+            logger.info(() -> "Retrieved page of " + messages.size() + " messages between " + user + " and " + partner);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getRecentMessages(String user, long beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> messages = page(userMessages.get(user), directIndex, beforeId, limit, false);
+            logger.info(() -> "Retrieved page of " + messages.size() + " recent messages for " + user);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Message> page(IntList list, IdIndex index, long beforeId, int limit, boolean roomMessage) {
+        List<Message> messages = new ArrayList<>();
+        if (list == null) {
+            return messages;
+        }
+        long cursor = beforeId > 0 ? beforeId : Long.MAX_VALUE;
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        int low = 0;
+        int high = list.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.ids[list.values[mid]] < cursor) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = Math.max(0, low - pageSize); i < low; i++) {
+            messages.add(readMessage(index.locations[list.values[i]], roomMessage));
+        }
+        return messages;
+    }
+
+    @Override
+    public void saveRoom(ChatRoom room) {
+        lock.writeLock().lock();
+        try {
+            if (roomIds.containsKey(room.getName())) {
+                return;
+            }
+            long roomId = lastRoomId + 1;
+            append(ROOM_RECORD, payload(out -> {
+                out.writeLong(roomId);
+                writeString(out, room.getName());
+            }));
+            lastRoomId = roomId;
+            roomIds.put(room.getName(), roomId);
+            roomNames.put(roomId, room.getName());
+            logger.info(() -> "Chat room saved to store with ID " + roomId + ": " + room.getName());
+        } catch (IOException e) {
+            logger.error(() -> "Failed to save chat room: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveRoomMessage(Message message, String roomName) {
+        lock.writeLock().lock();
+        try {
+            Long roomId = roomIds.get(roomName);
+            if (roomId == null) {
+                logger.warn(() -> "Room message not saved, unknown room: " + roomName);
+                return;
+            }
+            long id = lastRoomMessageId + 1;
+            long location = append(ROOM_MESSAGE_RECORD, payload(out -> {
+                out.writeLong(id);
+                out.writeLong(message.getTimestamp());
+                out.writeLong(roomId);
+                writeString(out, message.getSender());
+                writeString(out, message.getContent());
+                writeFileReference(out, message);
+            }));
+            message.setId(id);
+            indexRoomMessage(id, roomId, location);
+        } catch (IOException e) {
+            logger.error(() -> "Failed to save room message: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> getRoomMessagePage(String roomName, long beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            Long roomId = roomIds.get(roomName);
+            if (roomId == null) {
+                return new ArrayList<>();
+            }
+            List<Message> messages = page(roomMessages.get(roomId), roomIndex, beforeId, limit, true);
+            logger.info(() -> "Retrieved page of " + messages.size() + " messages for room " + roomName);
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveRoomMember(String username, String roomName) {
+        lock.writeLock().lock();
+        try {
+            Long roomId = roomIds.get(roomName);
+            if (roomId == null || roomMembers.getOrDefault(roomId, Set.of()).contains(username)) {
+                return;
+            }
+            append(MEMBER_RECORD, payload(out -> {
+                out.writeLong(roomId);
+                writeString(out, username);
+            }));
+            roomMembers.computeIfAbsent(roomId, k -> new HashSet<>()).add(username);
+            logger.info(() -> "Room member saved: User " + username + " in room " + roomName);
+        } catch (IOException e) {
+            logger.error(() -> "Failed to save room member: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isUserInRoom(String username, String roomName) {
+        lock.readLock().lock();
+        try {
+            Long roomId = roomIds.get(roomName);
+            return roomId != null && roomMembers.getOrDefault(roomId, Set.of()).contains(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ChatRoom[] getAllRooms() {
+        lock.readLock().lock();
+        try {
+            List<ChatRoom> rooms = new ArrayList<>(roomIds.size());
+            for (Map.Entry<String, Long> entry : roomIds.entrySet()) {
+                ChatRoom room = new ChatRoom(entry.getKey());
+                List<User> members = new ArrayList<>();
+                for (String username : roomMembers.getOrDefault(entry.getValue(), Set.of())) {
+                    StoredUser stored = users.get(username);
+                    if (stored != null) {
+                        members.add(UserFactory.createUser("regular", stored.username(), stored.password(),
+                                stored.firstName(), stored.lastName()));
+                    }
+                }
+                room.addMembers(members);
+                rooms.add(room);
+            }
+            return rooms.toArray(new ChatRoom[0]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> deleteRoom(String roomName) {
+        List<String> fileHashes = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            Long roomId = roomIds.get(roomName);
+            if (roomId == null) {
+                return fileHashes;
+            }
+            IntList messages = roomMessages.get(roomId);
+            for (int i = 0; messages != null && i < messages.size; i++) {
+                long location = roomIndex.locations[messages.values[i]];
+                if (location != DEAD) {
+                    String fileHash = readMessage(location, true).getFileHash();
+                    if (fileHash != null) {
+                        fileHashes.add(fileHash);
+                    }
+                }
+            }
+            append(ROOM_DELETED_RECORD, payload(out -> out.writeLong(roomId)));
+            dropRoom(roomId);
+            logger.info(() -> "Chat room and related data deleted from store: " + roomName);
+        } catch (IOException e) {
+            logger.error(() -> "Failed to delete chat room: " + e.getMessage());
+            fileHashes.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return fileHashes;
+    }
+
+    @Override
+    public Map<Long, Message> getMessagesByIds(List<Long> ids, boolean roomMessages) {
+        Map<Long, Message> found = new HashMap<>();
+        IdIndex index = roomMessages ? roomIndex : directIndex;
+        lock.readLock().lock();
+        try {
+            for (long id : ids) {
+                int position = index.find(id);
+                if (position >= 0 && index.locations[position] != DEAD) {
+                    found.put(id, readMessage(index.locations[position], roomMessages));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    @Override
+    public long scanStoredMessages(long maxMessageId, long maxRoomMessageId, Consumer<Message> consumer) {
+        return scan(directIndex, maxMessageId, false, consumer) + scan(roomIndex, maxRoomMessageId, true, consumer);
+    }
+
+    private long scan(IdIndex index, long maxId, boolean roomMessage, Consumer<Message> consumer) {
+        long count = 0;
+        int position = 0;
+        while (true) {
+            List<Message> batch = new ArrayList<>(SCAN_BATCH_SIZE);
+            lock.readLock().lock();
+            try {
+                while (position < index.size && index.ids[position] <= maxId && batch.size() < SCAN_BATCH_SIZE) {
+                    if (index.locations[position] != DEAD) {
+                        batch.add(readMessage(index.locations[position], roomMessage));
+                    }
+                    position++;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (batch.isEmpty()) {
+                return count;
+            }
+            batch.forEach(consumer);
+            count += batch.size();
+        }
+    }
+
+    @Override
+    public long getLastMessageId() {
+        lock.readLock().lock();
+        try {
+            return lastMessageId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getLastRoomMessageId() {
+        lock.readLock().lock();
+        try {
+            return lastRoomMessageId;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCompactionCount() {
+        lock.readLock().lock();
+        try {
+            return compactions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            logger.info(() -> "Segment store closed: " + directIndex.size + " messages, " + roomIndex.size + " room messages");
+        } catch (IOException e) {
+            logger.error(() -> "Failed to close segment store: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
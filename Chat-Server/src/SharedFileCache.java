@@ -0,0 +1,108 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class SharedFileCache {
+    private final BlobStore blobStore;
+    private final long capacityBytes;
+    private final long maxFileBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Object> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Logger logger = Logger.getInstance();
+    private long usedBytes;
+
+    public SharedFileCache(BlobStore blobStore) {
+        this(blobStore,
+                ServerConfig.getLong("CHAT_FILE_CACHE_MB", 256) * 1024 * 1024,
+                ServerConfig.getLong("CHAT_FILE_CACHE_MAX_FILE_MB", 32) * 1024 * 1024);
+    }
+
+    public SharedFileCache(BlobStore blobStore, long capacityBytes, long maxFileBytes) {
+        this.blobStore = blobStore;
+        this.capacityBytes = capacityBytes;
+        this.maxFileBytes = Math.min(maxFileBytes, capacityBytes);
+    }
+
+    public void put(String hash, byte[] data) {
+        if (data.length > maxFileBytes) {
+            return;
+        }
+        synchronized (entries) {
+            byte[] previous = entries.put(hash, data);
+            usedBytes += data.length - (previous != null ? previous.length : 0);
+            evict();
+        }
+    }
+
+    public void prime(String hash, long size) {
+        if (size > maxFileBytes || contains(hash)) {
+            return;
+        }
+        Object marker = new Object();
+        if (loading.putIfAbsent(hash, marker) != null) {
+            return;
+        }
+        try {
+            if (!contains(hash)) {
+                put(hash, blobStore.read(hash));
+                logger.debug(() -> "Cached shared file " + hash + " (" + size + " bytes)");
+            }
+        } catch (IOException e) {
+            logger.warn(() -> "Could not cache shared file " + hash + ": " + e.getMessage());
+        } finally {
+            loading.remove(hash, marker);
+        }
+    }
+
+    public byte[] read(String hash, long offset, int length) throws IOException {
+        byte[] cached;
+        synchronized (entries) {
+            cached = entries.get(hash);
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return blobStore.read(hash, offset, length);
+        }
+        hits.incrementAndGet();
+        if (offset < 0 || offset > cached.length) {
+            throw new EOFException("Offset " + offset + " is outside file " + hash + " of " + cached.length + " bytes");
+        }
+        int end = (int) Math.min(cached.length, offset + Math.max(length, 0));
+        return Arrays.copyOfRange(cached, (int) offset, end);
+    }
+
+    public boolean contains(String hash) {
+        synchronized (entries) {
+            return entries.containsKey(hash);
+        }
+    }
+
+    private void evict() {
+        Iterator<byte[]> eldest = entries.values().iterator();
+        while (usedBytes > capacityBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    public long getUsedBytes() {
+        synchronized (entries) {
+            return usedBytes;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,164 @@
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class SseCallback implements ClientCallback {
+    record Event(long id, String text) {
+    }
+
+    private final String username;
+    private final int capacity;
+    private final LinkedBlockingDeque<Event> pending;
+    private final ArrayDeque<Event> delivered = new ArrayDeque<>();
+    private final AtomicLong eventIds = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    public SseCallback(String username, int capacity) {
+        this.username = username;
+        this.capacity = capacity;
+        this.pending = new LinkedBlockingDeque<>(capacity);
+    }
+
+    @Override
+    public void onFileReceived(Message fileMessage) throws RemoteException {
+        push("file", HttpJson.message(fileMessage));
+    }
+
+    @Override
+    public void onRoomFileReceived(String roomName, Message fileMessage) throws RemoteException {
+        push("room-file", roomEvent(roomName, fileMessage));
+    }
+
+    @Override
+    public void onMessageReceived(Message message) throws RemoteException {
+        push("message", HttpJson.message(message));
+    }
+
+    @Override
+    public void onRoomMessageReceived(String roomName, Message message) throws RemoteException {
+        push("room-message", roomEvent(roomName, message));
+    }
+
+    @Override
+    public void onUserStatusChanged(String username, boolean online) throws RemoteException {
+        push("status", "{\"username\":" + HttpJson.string(username) + ",\"online\":" + online + "}");
+    }
+
+    @Override
+    public void onPresenceSnapshot(PresenceSnapshot snapshot) throws RemoteException {
+        push("presence", HttpJson.presence(snapshot));
+    }
+
+    @Override
+    public void onPresenceDelta(long version, String username, boolean online) throws RemoteException {
+        push("presence-delta", "{\"version\":" + version + ",\"username\":" + HttpJson.string(username)
+                + ",\"online\":" + online + "}");
+    }
+
+    @Override
+    public void onEventsReceived(List<CallbackEvent> events) throws RemoteException {
+        for (CallbackEvent event : events) {
+            event.deliverTo(this);
+        }
+    }
+
+    @Override
+    public void onHistoryChunk(long streamId, List<Message> chunk, boolean last) throws RemoteException {
+        push("history", "{\"streamId\":" + streamId + ",\"last\":" + last + ",\"messages\":"
+                + HttpJson.messages(chunk) + "}");
+    }
+
+    @Override
+    public void ping() throws RemoteException {
+        if (closed) {
+            throw new RemoteException("Event stream for " + username + " is closed");
+        }
+    }
+
+    private static String roomEvent(String roomName, Message message) {
+        return "{\"room\":" + HttpJson.string(roomName) + ",\"message\":" + HttpJson.message(message) + "}";
+    }
+
+    private synchronized void push(String type, String data) throws RemoteException {
+        if (closed) {
+            throw new RemoteException("Event stream for " + username + " is closed");
+        }
+        long id = eventIds.incrementAndGet();
+        Event event = new Event(id, "id: " + id + "\nevent: " + type + "\ndata: " + data + "\n\n");
+        if (!pending.offer(event)) {
+            dropped.incrementAndGet();
+            throw new RemoteException("Event stream for " + username + " is not being drained");
+        }
+    }
+
+    Event poll(long timeoutMillis) throws InterruptedException {
+        Event event = pending.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (event != null) {
+            synchronized (delivered) {
+                delivered.addLast(event);
+                if (delivered.size() > capacity) {
+                    delivered.removeFirst();
+                }
+            }
+        }
+        return event;
+    }
+
+    void requeue(Event event) {
+        synchronized (delivered) {
+            delivered.removeLastOccurrence(event);
+        }
+        if (!pending.offerFirst(event)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    int replayAfter(long lastEventId) {
+        int replayed = 0;
+        synchronized (delivered) {
+            Iterator<Event> newestFirst = delivered.descendingIterator();
+            while (newestFirst.hasNext()) {
+                Event event = newestFirst.next();
+                if (event.id() <= lastEventId) {
+                    break;
+                }
+                newestFirst.remove();
+                if (pending.offerFirst(event)) {
+                    replayed++;
+                } else {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+        return replayed;
+    }
+
+    void close() {
+        closed = true;
+        pending.clear();
+        synchronized (delivered) {
+            delivered.clear();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+public final class UploadManager {
+    public static final long UNKNOWN_UPLOAD = -1;
+
+    public record CompletedUpload(String fileName, String fileHash, long fileSize) {
+    }
+
+    private static final class UploadSession {
+        private final String owner;
+        private final String fileName;
+        private final long fileSize;
+        private final Path temp;
+        private final FileChannel channel;
+        private final MessageDigest digest = BlobStore.newDigest();
+        private final CRC32C crc = new CRC32C();
+        private long offset;
+        private boolean closed;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private UploadSession(String owner, String fileName, long fileSize, Path temp, FileChannel channel) {
+            this.owner = owner;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.temp = temp;
+            this.channel = channel;
+        }
+
+        private void discard() {
+            closed = true;
+            try {
+                channel.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                Logger.getInstance().warn(() -> "Failed to discard upload file " + temp + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private final BlobStore blobStore;
+    private final ConcurrentHashMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final int maxChunkBytes;
+    private final long maxFileBytes;
+    private final long idleTimeoutMillis;
+    private final ScheduledExecutorService sweeper;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rejectedChunks = new AtomicLong();
+    private final Logger logger = Logger.getInstance();
+
+    public UploadManager(BlobStore blobStore) {
+        this(blobStore,
+                ServerConfig.getInt("CHAT_UPLOAD_MAX_CHUNK_BYTES", 4 * 1024 * 1024),
+                ServerConfig.getLong("CHAT_UPLOAD_MAX_BYTES", 2L * 1024 * 1024 * 1024),
+                ServerConfig.getLong("CHAT_UPLOAD_IDLE_TIMEOUT_MS", 1_800_000));
+    }
+
+    public UploadManager(BlobStore blobStore, int maxChunkBytes, long maxFileBytes, long idleTimeoutMillis) {
+        this.blobStore = blobStore;
+        this.maxChunkBytes = maxChunkBytes;
+        this.maxFileBytes = maxFileBytes;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("upload-sweeper").daemon().factory());
+        long sweepMillis = Math.max(1_000, idleTimeoutMillis / 4);
+        sweeper.scheduleWithFixedDelay(this::expireIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public String begin(String owner, String fileName, long fileSize) throws IOException {
+        if (fileSize < 0 || fileSize > maxFileBytes) {
+            throw new IOException("File size " + fileSize + " exceeds the upload limit of " + maxFileBytes + " bytes");
+        }
+        String uploadId = UUID.randomUUID().toString();
+        Path temp = blobStore.newTempFile();
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        sessions.put(uploadId, new UploadSession(owner, fileName, fileSize, temp, channel));
+        logger.info(() -> "Upload " + uploadId + " started by " + owner + ": " + fileName + " (" + fileSize + " bytes)");
+        return uploadId;
+    }
+
+    public long getOffset(String owner, String uploadId) {
+        UploadSession session = find(owner, uploadId);
+        if (session == null) {
+            return UNKNOWN_UPLOAD;
+        }
+        synchronized (session) {
+            return session.closed ? UNKNOWN_UPLOAD : session.offset;
+        }
+    }
+
+    public long write(String owner, String uploadId, long offset, byte[] data, long checksum) throws IOException {
+        UploadSession session = find(owner, uploadId);
+        if (session == null) {
+            return UNKNOWN_UPLOAD;
+        }
+        synchronized (session) {
+            if (session.closed) {
+                return UNKNOWN_UPLOAD;
+            }
+            session.lastActivity = System.currentTimeMillis();
+            if (offset != session.offset) {
+                logger.debug(() -> "Upload " + uploadId + " chunk at " + offset + " ignored, expected " + session.offset);
+                return session.offset;
+            }
+            if (data.length > maxChunkBytes || session.offset + data.length > session.fileSize) {
+                rejectedChunks.incrementAndGet();
+                logger.warn(() -> "Upload " + uploadId + " chunk of " + data.length + " bytes at " + offset + " is out of bounds");
+                return session.offset;
+            }
+            session.crc.reset();
+            session.crc.update(data);
+            if (session.crc.getValue() != checksum) {
+                rejectedChunks.incrementAndGet();
+                logger.warn(() -> "Upload " + uploadId + " chunk at " + offset + " failed its checksum");
+                return session.offset;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += session.channel.write(buffer, position);
+            }
+            session.digest.update(data);
+            session.offset = position;
+            return position;
+        }
+    }
+
+    public CompletedUpload commit(String owner, String uploadId) throws IOException {
+        UploadSession session = find(owner, uploadId);
+        if (session == null) {
+            throw new IOException("Unknown upload " + uploadId);
+        }
+        synchronized (session) {
+            if (session.closed) {
+                throw new IOException("Upload " + uploadId + " is no longer active");
+            }
+            if (session.offset != session.fileSize) {
+                throw new IOException("Upload " + uploadId + " is incomplete: " + session.offset + " of "
+                        + session.fileSize + " bytes received");
+            }
+            session.closed = true;
+            sessions.remove(uploadId);
+            String hash;
+            try {
+                session.channel.force(true);
+                session.channel.close();
+                hash = HexFormat.of().formatHex(session.digest.digest());
+                blobStore.commit(session.temp, hash);
+            } catch (IOException e) {
+                Files.deleteIfExists(session.temp);
+                throw e;
+            }
+            completed.incrementAndGet();
+            logger.info(() -> "Upload " + uploadId + " committed as " + hash);
+            return new CompletedUpload(session.fileName, hash, session.fileSize);
+        }
+    }
+
+    public void abort(String owner, String uploadId) {
+        UploadSession session = find(owner, uploadId);
+        if (session != null && sessions.remove(uploadId, session)) {
+            synchronized (session) {
+                session.discard();
+            }
+            logger.info(() -> "Upload " + uploadId + " aborted by " + owner);
+        }
+    }
+
+    private UploadSession find(String owner, String uploadId) {
+        UploadSession session = uploadId != null ? sessions.get(uploadId) : null;
+        return session != null && session.owner.equals(owner) ? session : null;
+    }
+
+    private void expireIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        sessions.forEach((uploadId, session) -> {
+            if (session.lastActivity < cutoff && sessions.remove(uploadId, session)) {
+                synchronized (session) {
+                    session.discard();
+                }
+                expired.incrementAndGet();
+                logger.info(() -> "Upload " + uploadId + " from " + session.owner + " expired after "
+                        + session.offset + " of " + session.fileSize + " bytes");
+            }
+        });
+    }
+
+    public int getMaxChunkBytes() {
+        return maxChunkBytes;
+    }
+
+    public int getActiveCount() {
+        return sessions.size();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public long getRejectedChunkCount() {
+        return rejectedChunks.get();
+    }
+
+    public void close() {
+        sweeper.shutdownNow();
+        sessions.forEach((uploadId, session) -> {
+            if (sessions.remove(uploadId, session)) {
+                synchronized (session) {
+                    session.discard();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+public final class UserCache {
+    private final Map<String, User> signedInUsers;
+    private final Function<String, User> loader;
+    private final LinkedHashMap<String, User> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public UserCache(Map<String, User> signedInUsers, Function<String, User> loader) {
+        this(signedInUsers, loader, ServerConfig.getInt("CHAT_USER_CACHE_SIZE", 10_000));
+    }
+
+    public UserCache(Map<String, User> signedInUsers, Function<String, User> loader, int maxSize) {
+        this.signedInUsers = signedInUsers;
+        this.loader = loader;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public User get(String username) {
+        User user = signedInUsers.get(username);
+        if (user == null) {
+            synchronized (entries) {
+                user = entries.get(username);
+            }
+        }
+        if (user != null) {
+            hits.incrementAndGet();
+            return user;
+        }
+        misses.incrementAndGet();
+        user = loader.apply(username);
+        if (user != null) {
+            put(user);
+        }
+        return user;
+    }
+
+    public boolean exists(String username) {
+        return get(username) != null;
+    }
+
+    public void put(User user) {
+        synchronized (entries) {
+            entries.put(user.getUsername(), user);
+        }
+    }
+
+    public void invalidate(String username) {
+        synchronized (entries) {
+            entries.remove(username);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+public final class MessageSerializationBenchmark {
+    private static final int PAGE_SIZE = 200;
+    private static final int WARMUP_ROUNDS = 2_000;
+    private static final int MEASURED_ROUNDS = 5_000;
+
+    private static final class LegacyMessage implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private long id;
+        private final String sender;
+        private final String recipient;
+        private final String content;
+        private final long timestamp;
+        private boolean isRoomMessage;
+        private byte[] fileData;
+
+        private LegacyMessage(Message message) {
+            this.id = message.getId();
+            this.sender = message.getSender();
+            this.recipient = message.getRecipient();
+            this.content = message.getContent();
+            this.timestamp = message.getTimestamp();
+            this.isRoomMessage = message.isRoomMessage();
+            this.fileData = message.getFileData();
+        }
+    }
+
+    private MessageSerializationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Message> page = samplePage();
+        List<LegacyMessage> legacyPage = new ArrayList<>(page.size());
+        for (Message message : page) {
+            legacyPage.add(new LegacyMessage(message));
+        }
+
+        System.out.printf("%-28s %12s %12s %12s %12s%n", "format", "single (B)", "page (B)", "encode (us)", "decode (us)");
+        report("default serialization", legacyPage.getFirst(), legacyPage);
+        Message.setNameSharing(false);
+        report("externalizable", page.getFirst(), page);
+        Message.setNameSharing(true);
+        report("externalizable + names", page.getFirst(), page);
+    }
+
+    private static List<Message> samplePage() {
+        String[] users = {"alice", "bob", "carol", "dave"};
+        String[] words = {"hello", "meeting", "at", "noon", "see", "you", "there", "thanks", "build", "is", "green"};
+        Random random = new Random(42);
+        long timestamp = 1_700_000_000_000L;
+        List<Message> page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            StringBuilder content = new StringBuilder();
+            int length = 3 + random.nextInt(12);
+            for (int w = 0; w < length; w++) {
+                content.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            timestamp += random.nextInt(60_000);
+            String body = i % 25 == 0 ? "FILE:report-" + i + ".pdf" : content.toString().trim();
+            Message message = new Message(users[random.nextInt(users.length)], "general", body, timestamp);
+            message.setId(1_000_000L + i);
+            message.setRoomMessage(true);
+            page.add(message);
+        }
+        return page;
+    }
+
+    private static void report(String name, Object single, List<?> page) throws Exception {
+        int singleSize = serialize(single).length;
+        byte[] encodedPage = serialize(page);
+        double encodeMicros = measure(() -> serializeUnchecked(page));
+        double decodeMicros = measure(() -> deserializeUnchecked(encodedPage));
+        System.out.printf("%-28s %12d %12d %12.1f %12.1f%n", name, singleSize, encodedPage.length, encodeMicros, decodeMicros);
+    }
+
+    private static double measure(Supplier<Object> operation) {
+        Object sink = null;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink = operation.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            sink = operation.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == null) {
+            throw new IllegalStateException("Benchmark produced no result");
+        }
+        return elapsed / 1_000.0 / MEASURED_ROUNDS;
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object serializeUnchecked(Object value) {
+        try {
+            return serialize(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object deserializeUnchecked(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
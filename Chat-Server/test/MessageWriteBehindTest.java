@@ -0,0 +1,157 @@
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+
+public final class MessageWriteBehindTest {
+    private static final String URL = "jdbc:writebehindtest:";
+    private static final String BAD_CONTENT = "row the database rejects";
+    private static final Set<Long> SAVED = new ConcurrentSkipListSet<>();
+
+    private MessageWriteBehindTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        DriverManager.registerDriver(new RejectingDriver());
+        oneBadRowDoesNotDropTheRestOfTheBatch();
+        System.out.println("MessageWriteBehindTest passed");
+    }
+
+    private static void oneBadRowDoesNotDropTheRestOfTheBatch() {
+        ConnectionPool pool = new ConnectionPool(URL, "", "", 2, 1_000, 30_000, 60_000);
+        MessageWriteBehind writeBehind = new MessageWriteBehind(pool, 100, 1_000, 1_000);
+        Set<Long> expected = new TreeSet<>();
+        for (long id = 1; id <= 20; id++) {
+            boolean bad = id == 7;
+            Message message = new Message("alice", "bob", bad ? BAD_CONTENT : "message " + id, id);
+            message.setId(id);
+            if (id % 2 == 0) {
+                writeBehind.saveRoomMessage(message, 1);
+            } else {
+                writeBehind.saveMessage(message);
+            }
+            if (!bad) {
+                expected.add(id);
+            }
+        }
+        writeBehind.close();
+        pool.close();
+
+        check(SAVED.equals(expected), "saved ids " + SAVED + " but expected " + expected);
+        check(writeBehind.getWrittenCount() == 19, "written count " + writeBehind.getWrittenCount());
+        check(writeBehind.getLostCount() == 1, "lost count " + writeBehind.getLostCount());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static final class RejectingDriver implements Driver {
+        @Override
+        public Connection connect(String url, Properties info) {
+            return acceptsURL(url) ? newConnection() : null;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+
+    private static Connection newConnection() {
+        List<Long> staged = new ArrayList<>();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> newStatement(staged);
+                    case "commit" -> {
+                        SAVED.addAll(staged);
+                        staged.clear();
+                        yield null;
+                    }
+                    case "rollback" -> {
+                        staged.clear();
+                        yield null;
+                    }
+                    case "isValid" -> true;
+                    case "isClosed", "getAutoCommit" -> false;
+                    default -> null;
+                });
+    }
+
+    private static PreparedStatement newStatement(List<Long> staged) {
+        Map<Integer, Object> parameters = new HashMap<>();
+        List<Map<Integer, Object>> rows = new ArrayList<>();
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "setLong", "setString" -> {
+                        parameters.put((Integer) args[0], args[1]);
+                        yield null;
+                    }
+                    case "addBatch" -> {
+                        rows.add(new HashMap<>(parameters));
+                        parameters.clear();
+                        yield null;
+                    }
+                    case "clearBatch" -> {
+                        rows.clear();
+                        yield null;
+                    }
+                    case "executeBatch" -> {
+                        for (Map<Integer, Object> row : rows) {
+                            if (BAD_CONTENT.equals(row.get(4))) {
+                                rows.clear();
+                                throw new SQLException("Data too long for column 'content'", "22001");
+                            }
+                        }
+                        for (Map<Integer, Object> row : rows) {
+                            staged.add((Long) row.get(1));
+                        }
+                        int[] counts = new int[rows.size()];
+                        rows.clear();
+                        yield counts;
+                    }
+                    case "isClosed" -> false;
+                    default -> null;
+                });
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.List;
+
+public final class RecentMessageRingTest {
+    private RecentMessageRingTest() {
+    }
+
+    public static void main(String[] args) {
+        lateMessageIsPlacedByIdOrder();
+        lateMessageOlderThanAFullRingIsEvicted();
+        System.out.println("RecentMessageRingTest passed");
+    }
+
+    private static void lateMessageIsPlacedByIdOrder() {
+        RecentMessageRing ring = new RecentMessageRing(10);
+        ring.markComplete();
+        for (long id : new long[]{1, 2, 4, 5, 3}) {
+            ring.add(message(id));
+        }
+        check(ids(ring.page(0, 10)).equals(List.of(1L, 2L, 3L, 4L, 5L)), "ring order " + ids(ring.page(0, 10)));
+        check(ids(ring.page(4, 2)).equals(List.of(2L, 3L)), "page before 4 " + ids(ring.page(4, 2)));
+    }
+
+    private static void lateMessageOlderThanAFullRingIsEvicted() {
+        RecentMessageRing ring = new RecentMessageRing(3);
+        ring.markComplete();
+        for (long id : new long[]{2, 3, 4, 1}) {
+            ring.add(message(id));
+        }
+        check(ids(ring.page(0, 3)).equals(List.of(2L, 3L, 4L)), "full ring " + ids(ring.page(0, 3)));
+        check(ring.page(0, 5) == null, "ring that evicted a message must not claim to be complete");
+    }
+
+    private static Message message(long id) {
+        Message message = new Message("alice", "lobby", "message " + id, id);
+        message.setId(id);
+        message.setRoomMessage(true);
+        return message;
+    }
+
+    private static List<Long> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}